@@ -99,7 +99,10 @@ fun ProGuardTask.optimizeJar(optimizationPasses: Int) {
       libraryjars("$javaHome/jmods/java.base.jmod")
       libraryjars("$javaHome/jmods/java.desktop.jmod")
       libraryjars("$javaHome/jmods/java.instrument.jmod")
+      libraryjars("$javaHome/jmods/java.management.jmod")
       libraryjars("$javaHome/jmods/java.sql.jmod")
+      libraryjars("$javaHome/jmods/jdk.jfr.jmod")
+      libraryjars("$javaHome/jmods/jdk.management.jmod")
     }
   libraryjars(configurations.compileClasspath.get().asFileTree.find { it.endsWith("brigadier-$brigadierVersion.jar") })
 
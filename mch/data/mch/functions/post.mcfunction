@@ -1,3 +1,2 @@
 _
 mch:post
-stop
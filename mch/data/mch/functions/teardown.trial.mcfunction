@@ -1 +1 @@
-function #mch:teardown.trial
+mch:teardown.trial
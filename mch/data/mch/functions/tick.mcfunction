@@ -0,0 +1 @@
+mch:tick
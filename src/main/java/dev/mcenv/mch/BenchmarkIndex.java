@@ -0,0 +1,195 @@
+package dev.mcenv.mch;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Discovers the benchmark functions of data packs, which are either directories or zip files. Only the leading comment
+// blocks of functions are read, in parallel, and their annotations are indexed by path, modification time and size in
+// .mch/index.json, so that unchanged functions and zip files are not read again on the next run.
+final class BenchmarkIndex {
+  private static final Pattern RESOURCE_LOCATION = Pattern.compile("^([a-z0-9_.-]+)/functions/([a-z0-9/._-]+)\\.mcfunction$");
+  private static final Path PATH = Paths.get(".mch", "index.json");
+  private static final int VERSION = 1;
+  private static final int HEADER_BUFFER_SIZE = 512;
+  private static final String ZIP_SUFFIX = ".zip";
+  private static final String COMMENT_PREFIX = "#";
+  private static final String ANNOTATION_PREFIX = "# @";
+  private static final String BENCHMARK_ANNOTATION = "# @benchmark";
+  private static final Gson GSON = new GsonBuilder()
+    .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+    .create();
+
+  private final Map<String, Entry> entries;
+  private final Map<String, Entry> scannedEntries = new ConcurrentHashMap<>();
+
+  private BenchmarkIndex(
+    final Map<String, Entry> entries
+  ) {
+    this.entries = entries;
+  }
+
+  public static BenchmarkIndex load() throws IOException {
+    if (Files.isRegularFile(PATH)) {
+      try (final var reader = Files.newBufferedReader(PATH, StandardCharsets.UTF_8)) {
+        final var index = GSON.fromJson(reader, Index.class);
+        if (index != null && index.version() == VERSION && index.entries() != null) {
+          return new BenchmarkIndex(index.entries());
+        }
+      } catch (final JsonParseException e) {
+        System.err.println("Rebuilding a malformed benchmark index");
+      }
+    }
+    return new BenchmarkIndex(Map.of());
+  }
+
+  // Only the scanned entries are saved, so that the entries of removed files are dropped.
+  public void save() throws IOException {
+    Files.createDirectories(PATH.getParent());
+    try (final var writer = Files.newBufferedWriter(PATH, StandardCharsets.UTF_8)) {
+      GSON.toJson(new Index(VERSION, new TreeMap<>(scannedEntries)), writer);
+    }
+  }
+
+  // Annotations of the benchmark functions of the data pack by function.
+  public Map<String, List<String>> scan(
+    final Path dataPack
+  ) throws IOException {
+    if (isZip(dataPack)) {
+      // a zip file is indexed as a whole, since its entries are only read through the zip file
+      final var attributes = Files.readAttributes(dataPack, BasicFileAttributes.class);
+      var entry = cached(dataPack, attributes);
+      if (entry == null) {
+        final var functions = new HashMap<String, List<String>>();
+        try (final var fileSystem = FileSystems.newFileSystem(dataPack)) {
+          for (final var functionFile : functionFiles(fileSystem.getPath("/"))) {
+            functions.putAll(readAnnotations(functionFile));
+          }
+        }
+        entry = new Entry(attributes.lastModifiedTime().toMillis(), attributes.size(), functions);
+      }
+      scannedEntries.put(dataPack.toString(), entry);
+      return entry.functions();
+    }
+
+    final var functions = new ConcurrentHashMap<String, List<String>>();
+    functionFiles(dataPack).parallelStream().forEach(functionFile -> {
+      try {
+        var entry = cached(functionFile.file(), functionFile.attributes());
+        if (entry == null) {
+          entry = new Entry(functionFile.attributes().lastModifiedTime().toMillis(), functionFile.attributes().size(), readAnnotations(functionFile));
+        }
+        scannedEntries.put(functionFile.file().toString(), entry);
+        functions.putAll(entry.functions());
+      } catch (final IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    return functions;
+  }
+
+  public static boolean isZip(
+    final Path dataPack
+  ) {
+    return Files.isRegularFile(dataPack) && dataPack.getFileName().toString().endsWith(ZIP_SUFFIX);
+  }
+
+  // Opens a zipped data pack as a file system of its own, or returns null for a directory.
+  public static FileSystem open(
+    final Path dataPack
+  ) throws IOException {
+    return isZip(dataPack) ? FileSystems.newFileSystem(dataPack) : null;
+  }
+
+  public static Path root(
+    final Path dataPack,
+    final FileSystem fileSystem
+  ) {
+    return fileSystem == null ? dataPack : fileSystem.getPath("/");
+  }
+
+  // Functions of the data pack, which are listed sequentially, since walking is cheap compared to reading.
+  public static List<FunctionFile> functionFiles(
+    final Path dataPackRoot
+  ) throws IOException {
+    final var root = dataPackRoot.resolve("data");
+    if (!Files.isDirectory(root)) {
+      return List.of();
+    }
+    final var separator = root.getFileSystem().getSeparator();
+    final var functionFiles = new ArrayList<FunctionFile>();
+    Files.walkFileTree(root, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        final var invariantSeparatorsPathString = root.relativize(file).toString().replace(separator, "/");
+        final var matcher = RESOURCE_LOCATION.matcher(invariantSeparatorsPathString);
+        if (matcher.matches()) {
+          functionFiles.add(new FunctionFile(file, matcher.group(1) + ':' + matcher.group(2), attrs));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return functionFiles;
+  }
+
+  private Entry cached(
+    final Path file,
+    final BasicFileAttributes attributes
+  ) {
+    final var entry = entries.get(file.toString());
+    if (entry == null) {
+      return null;
+    }
+    return entry.modified() == attributes.lastModifiedTime().toMillis() && entry.size() == attributes.size() ? entry : null;
+  }
+
+  // Reads up to the first command with a small buffer, since functions may be much longer than their comments.
+  private static Map<String, List<String>> readAnnotations(
+    final FunctionFile functionFile
+  ) throws IOException {
+    final var annotations = new ArrayList<String>();
+    try (final var reader = new BufferedReader(new InputStreamReader(Files.newInputStream(functionFile.file()), StandardCharsets.UTF_8), HEADER_BUFFER_SIZE)) {
+      String line;
+      while ((line = reader.readLine()) != null && (line = line.trim()).startsWith(COMMENT_PREFIX)) {
+        if (line.startsWith(ANNOTATION_PREFIX)) {
+          annotations.add(line);
+        }
+      }
+    }
+    return annotations.contains(BENCHMARK_ANNOTATION) ? Map.of(functionFile.function(), annotations) : Map.of();
+  }
+
+  record FunctionFile(
+    Path file,
+    String function,
+    BasicFileAttributes attributes
+  ) {
+  }
+
+  @Keep
+  record Index(
+    @Keep int version,
+    @Keep Map<String, Entry> entries
+  ) {
+  }
+
+  // The benchmark functions of a function file or a zip file with their annotations.
+  @Keep
+  record Entry(
+    @Keep long modified,
+    @Keep long size,
+    @Keep Map<String, List<String>> functions
+  ) {
+  }
+}
@@ -0,0 +1,58 @@
+package dev.mcenv.mch;
+
+import java.util.concurrent.TimeUnit;
+
+import static dev.mcenv.mch.Util.abbreviate;
+import static dev.mcenv.mch.Util.convert;
+
+enum BenchmarkMode {
+  AVERAGE_TIME("avgt"),
+  SAMPLE_TIME("sample"),
+  THROUGHPUT("thrpt"),
+  SINGLE_SHOT("ss"),
+  TICK("tick");
+
+  private final String name;
+
+  BenchmarkMode(
+    final String name
+  ) {
+    this.name = name;
+  }
+
+  public static BenchmarkMode parse(
+    final String string
+  ) {
+    return switch (string) {
+      case "avgt" -> AVERAGE_TIME;
+      case "sample" -> SAMPLE_TIME;
+      case "thrpt" -> THROUGHPUT;
+      case "ss" -> SINGLE_SHOT;
+      case "tick" -> TICK;
+      default -> throw new IllegalStateException("Unexpected benchmark mode: " + string);
+    };
+  }
+
+  public String unit(
+    final TimeUnit timeUnit
+  ) {
+    return switch (this) {
+      case THROUGHPUT -> "ops/" + abbreviate(timeUnit);
+      case TICK -> abbreviate(timeUnit) + "/tick";
+      default -> abbreviate(timeUnit) + "/op";
+    };
+  }
+
+  // Converts a score in ns/op, ns/tick for ticks, or in ops/ns for throughput, to the given time unit.
+  public double convertScore(
+    final double score,
+    final TimeUnit timeUnit
+  ) {
+    return this == THROUGHPUT ? convert(score, timeUnit, TimeUnit.NANOSECONDS) : convert(score, TimeUnit.NANOSECONDS, timeUnit);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
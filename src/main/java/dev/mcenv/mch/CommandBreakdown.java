@@ -0,0 +1,115 @@
+package dev.mcenv.mch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+
+// Merges the command costs measured by the breakdown profiler in forks and attributes them to the lines of functions.
+final class CommandBreakdown {
+  private static final String COMMENT_PREFIX = "#";
+  private static final String MACRO_PREFIX = "$";
+  private static final String CONTINUATION_SUFFIX = "\\";
+
+  private final Map<String, long[]> costs = new HashMap<>();
+  private long operationCount;
+
+  public synchronized void merge(
+    final long operationCount,
+    final Map<String, long[]> costs
+  ) {
+    this.operationCount += operationCount;
+    costs.forEach((command, cost) -> {
+      final var merged = this.costs.computeIfAbsent(command, key -> new long[2]);
+      merged[0] += cost[0];
+      merged[1] += cost[1];
+    });
+  }
+
+  // Costs per operation, from the most expensive command.
+  public synchronized List<Cost> costs(
+    final Map<String, List<Location>> locations
+  ) {
+    if (operationCount == 0L) {
+      return List.of();
+    }
+    return costs.entrySet()
+      .stream()
+      .map(entry -> new Cost(
+        entry.getKey(),
+        locations.getOrDefault(entry.getKey(), List.of()),
+        (double) entry.getValue()[0] / operationCount,
+        (double) entry.getValue()[1] / operationCount
+      ))
+      .sorted(Comparator.comparingDouble(Cost::time).reversed())
+      .toList();
+  }
+
+  // Adds the commands of a function to the index, joining lines continued with a trailing backslash.
+  // Macro lines are skipped, since they are only known after expansion.
+  public static void index(
+    final String function,
+    final BufferedReader reader,
+    final Map<String, List<Location>> locations
+  ) throws IOException {
+    var number = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      final var location = new Location(function, ++number);
+      var command = line.trim();
+      while (command.endsWith(CONTINUATION_SUFFIX) && (line = reader.readLine()) != null) {
+        ++number;
+        command = command.substring(0, command.length() - CONTINUATION_SUFFIX.length()) + line.trim();
+      }
+      if (!command.isEmpty() && !command.startsWith(COMMENT_PREFIX) && !command.startsWith(MACRO_PREFIX)) {
+        locations.computeIfAbsent(command, key -> new ArrayList<>()).add(location);
+      }
+    }
+  }
+
+  // Self times of commands summed by function, from the most expensive function.
+  public static Map<String, Double> functionTimes(
+    final List<Cost> costs
+  ) {
+    final var times = new HashMap<String, Double>();
+    for (final var cost : costs) {
+      times.merge(cost.function(), cost.time(), Double::sum);
+    }
+    final var result = new LinkedHashMap<String, Double>();
+    times.entrySet()
+      .stream()
+      .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+      .forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+    return result;
+  }
+
+  public static double totalTime(
+    final List<Cost> costs
+  ) {
+    return costs.stream().mapToDouble(Cost::time).sum();
+  }
+
+  record Location(
+    String function,
+    int line
+  ) {
+    @Override
+    public String toString() {
+      return function + ":" + line;
+    }
+  }
+
+  // A command may appear on several lines, whose costs cannot be told apart.
+  record Cost(
+    String command,
+    List<Location> locations,
+    double time,
+    double executions
+  ) {
+    private static final String UNKNOWN_FUNCTION = "?";
+
+    public String function() {
+      final var functions = locations.stream().map(Location::function).distinct().toList();
+      return functions.size() == 1 ? functions.get(0) : UNKNOWN_FUNCTION;
+    }
+  }
+}
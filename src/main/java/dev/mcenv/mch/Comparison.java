@@ -0,0 +1,106 @@
+package dev.mcenv.mch;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Objects;
+
+final class Comparison {
+  // Loads the results to compare with before the run, since the run may overwrite them with its own.
+  public static Results load(
+    final MchConfig mchConfig
+  ) throws IOException {
+    final var path = Paths.get(mchConfig.compare());
+    if (!Files.isRegularFile(path)) {
+      throw new IllegalStateException("No results to compare with were found: " + path);
+    }
+    final Results previous;
+    try (final var reader = Files.newBufferedReader(path)) {
+      previous = new GsonBuilder()
+        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+        .create()
+        .fromJson(reader, Results.class);
+    }
+    if (previous == null || previous.results() == null) {
+      throw new IllegalStateException("No results to compare with were found: " + path);
+    }
+    return previous;
+  }
+
+  public static void compare(
+    final MchConfig mchConfig,
+    final Results previous,
+    final Collection<RunResult> runResults
+  ) {
+    final var previousResults = new HashMap<String, Results.Result>();
+    for (final var result : previous.results()) {
+      previousResults.put(key(result), result);
+    }
+
+    System.out.println("Comparing with " + mchConfig.compare());
+    var regressions = 0;
+    for (final var runResult : runResults) {
+      final var current = Results.Result.of(mchConfig, runResult);
+      final var baseline = previousResults.get(key(current));
+      if (baseline == null || baseline.scores() == null || baseline.scores().length < 2) {
+        continue;
+      }
+      if (!baseline.unit().equals(current.unit())) {
+        System.out.printf("%s: skipped, unit changed from %s to %s\n", current.name(), baseline.unit(), current.unit());
+        continue;
+      }
+
+      // ratio of the times, so that > 1 is a slowdown regardless of the benchmark mode
+      final var throughput = runResult.benchmarkMode() == BenchmarkMode.THROUGHPUT;
+      final var ratio = throughput ? baseline.score() / current.score() : current.score() / baseline.score();
+      final var relativeError = Math.hypot(
+        Statistics.error(current.scores(), mchConfig.confidence()) / current.score(),
+        Statistics.error(baseline.scores(), mchConfig.confidence()) / baseline.score()
+      );
+      final var pValue = Statistics.pValue(baseline.scores(), current.scores());
+      final var significant = pValue < 1.0 - mchConfig.confidence();
+      final var regression = significant && ratio > 1.0 + mchConfig.regressionThreshold();
+      if (regression) {
+        ++regressions;
+      }
+
+      final String change;
+      if (!significant) {
+        change = "unchanged";
+      } else if (ratio > 1.0) {
+        change = String.format("%.3fx slower", ratio);
+      } else {
+        change = String.format("%.3fx faster", 1.0 / ratio);
+      }
+      System.out.printf(
+        "%s %s %s %s: %.3f ± %.3f, %s (p = %.4f)%s\n",
+        current.group(),
+        current.name(),
+        current.mode(),
+        current.benchmarkMode(),
+        ratio,
+        ratio * relativeError,
+        change,
+        pValue,
+        regression ? " REGRESSION" : ""
+      );
+    }
+
+    if (regressions > 0) {
+      throw new IllegalStateException(String.format("%d benchmark(s) regressed by more than %s%%", regressions, mchConfig.regressionThreshold() * 100.0));
+    }
+  }
+
+  private static String key(
+    final Results.Result result
+  ) {
+    // results written before benchmark modes were introduced are average times
+    final var benchmarkMode = Objects.requireNonNullElse(result.benchmarkMode(), BenchmarkMode.AVERAGE_TIME.toString());
+    return String.join("\0", result.group(), result.name(), result.mode(), benchmarkMode);
+  }
+}
@@ -0,0 +1,148 @@
+package dev.mcenv.mch;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Writes folded stacks and renders them as a self-contained SVG flame graph.
+final class FlameGraph {
+  private static final int WIDTH = 1200;
+  private static final int PADDING = 10;
+  private static final int FRAME_HEIGHT = 16;
+  private static final int TITLE_HEIGHT = 24;
+  private static final double CHARACTER_WIDTH = 7.0;
+  private static final double MIN_FRAME_WIDTH = 0.1;
+
+  public static void writeFolded(
+    final Path path,
+    final Map<String, Long> stacks
+  ) throws IOException {
+    try (final var writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      for (final var entry : new TreeMap<>(stacks).entrySet()) {
+        writer.write(entry.getKey());
+        writer.write(' ');
+        writer.write(String.valueOf(entry.getValue()));
+        writer.newLine();
+      }
+    }
+  }
+
+  public static void writeSvg(
+    final Path path,
+    final String title,
+    final Map<String, Long> stacks
+  ) throws IOException {
+    final var root = new Frame("all");
+    for (final var entry : stacks.entrySet()) {
+      var frame = root;
+      frame.samples += entry.getValue();
+      for (final var name : entry.getKey().split(";")) {
+        frame = frame.children.computeIfAbsent(name, Frame::new);
+        frame.samples += entry.getValue();
+      }
+    }
+
+    final var depth = root.depth();
+    final var height = TITLE_HEIGHT + depth * FRAME_HEIGHT + 2 * PADDING;
+    try (final var writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write(String.format(Locale.ROOT, "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\" font-family=\"monospace\" font-size=\"12\">\n", WIDTH, height, WIDTH, height));
+      writer.write(String.format(Locale.ROOT, "<rect width=\"100%%\" height=\"100%%\" fill=\"#f8f8f8\"/>\n<text x=\"%d\" y=\"%d\" text-anchor=\"middle\" font-size=\"16\">%s</text>\n", WIDTH / 2, PADDING + 16, escape(title)));
+      if (root.samples > 0) {
+        final var scale = (WIDTH - 2.0 * PADDING) / root.samples;
+        writeFrame(writer, root, root.samples, PADDING, height - PADDING - FRAME_HEIGHT, scale);
+      }
+      writer.write("</svg>\n");
+    }
+  }
+
+  private static void writeFrame(
+    final BufferedWriter writer,
+    final Frame frame,
+    final long total,
+    final double x,
+    final int y,
+    final double scale
+  ) throws IOException {
+    final var width = frame.samples * scale;
+    if (width < MIN_FRAME_WIDTH) {
+      return;
+    }
+    final var label = escape(frame.name);
+    final var text = truncate(frame.name, width);
+    writer.write(String.format(
+      Locale.ROOT,
+      "<g><title>%s (%d samples, %.2f%%)</title><rect x=\"%.1f\" y=\"%d\" width=\"%.1f\" height=\"%d\" fill=\"%s\" rx=\"2\"/>%s</g>\n",
+      label,
+      frame.samples,
+      100.0 * frame.samples / total,
+      x,
+      y,
+      width,
+      FRAME_HEIGHT - 1,
+      color(frame.name),
+      text.isEmpty() ? "" : String.format(Locale.ROOT, "<text x=\"%.1f\" y=\"%d\">%s</text>", x + 3, y + FRAME_HEIGHT - 4, escape(text))
+    ));
+    var childX = x;
+    for (final var child : frame.children.values()) {
+      writeFrame(writer, child, total, childX, y - FRAME_HEIGHT, scale);
+      childX += child.samples * scale;
+    }
+  }
+
+  private static String truncate(
+    final String name,
+    final double width
+  ) {
+    final var length = (int) ((width - 6) / CHARACTER_WIDTH);
+    if (length < 3) {
+      return "";
+    }
+    return name.length() <= length ? name : name.substring(0, length - 2) + "..";
+  }
+
+  // Warm colors derived from the frame name, so that a frame keeps its color across graphs.
+  private static String color(
+    final String name
+  ) {
+    final var hash = name.hashCode();
+    final var red = 205 + Math.floorMod(hash, 50);
+    final var green = Math.floorMod(hash >>> 8, 180);
+    final var blue = Math.floorMod(hash >>> 16, 55);
+    return String.format(Locale.ROOT, "rgb(%d,%d,%d)", red, green, blue);
+  }
+
+  private static String escape(
+    final String string
+  ) {
+    return string
+      .replace("&", "&amp;")
+      .replace("<", "&lt;")
+      .replace(">", "&gt;")
+      .replace("\"", "&quot;");
+  }
+
+  private static final class Frame {
+    private final String name;
+    private final Map<String, Frame> children = new TreeMap<>();
+    private long samples;
+
+    private Frame(
+      final String name
+    ) {
+      this.name = name;
+    }
+
+    private int depth() {
+      var depth = 0;
+      for (final var child : children.values()) {
+        depth = Math.max(depth, child.depth());
+      }
+      return depth + 1;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package dev.mcenv.mch;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+// Boots the server of the next fork of a worker while the current fork shuts down, so that forks do not wait for
+// startup. A pooled server waits in its first load function for the options of exactly one fork, and stops after
+// running it. Since it boots alongside the current fork, each server runs in a copy of the world of the worker and on a
+// port of its own, alternating between two slots.
+final class ForkPool {
+  private static final int SLOTS = 2;
+
+  private final Path world;
+  private final Path root;
+  private final String levelName;
+  private final Launcher launcher;
+  private Member next;
+  private int slot;
+
+  public ForkPool(
+    final Path world,
+    final Path root,
+    final String levelName,
+    final Launcher launcher
+  ) {
+    this.world = world;
+    this.root = root;
+    this.levelName = levelName;
+    this.launcher = launcher;
+  }
+
+  // Takes the booted server, or boots one if there is none.
+  public Member take() throws IOException {
+    final var member = next != null ? next : boot();
+    next = null;
+    return member;
+  }
+
+  // Starts booting the server of the next fork.
+  public void prepare() throws IOException {
+    if (next == null) {
+      next = boot();
+    }
+  }
+
+  // Discards the booted server, whose world is out of date once the world of the worker has changed.
+  public void clear() throws IOException, InterruptedException {
+    if (next != null) {
+      next.discard();
+      next = null;
+    }
+  }
+
+  private Member boot() throws IOException {
+    final var universe = root.resolve(String.valueOf(slot));
+    slot = (slot + 1) % SLOTS;
+    Worlds.synchronize(world, universe.resolve(levelName));
+
+    final int port;
+    try (final var socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    final var server = new ServerSocket(0);
+    try {
+      final var process = launcher.launch(
+        new Options.Pool(server.getLocalPort()).toString(),
+        List.of("--universe", universe.toString(), "--world", levelName, "--port", String.valueOf(port))
+      ).inheritIO().start();
+      return new Member(process, server);
+    } catch (final IOException e) {
+      server.close();
+      throw e;
+    }
+  }
+
+  @FunctionalInterface
+  interface Launcher {
+    ProcessBuilder launch(
+      final String options,
+      final List<String> mcArgs
+    ) throws IOException;
+  }
+
+  record Member(
+    Process process,
+    ServerSocket server
+  ) {
+    // Hands the options of its fork to the server once it has connected.
+    public Socket connect(
+      final String options
+    ) throws IOException {
+      final var client = server.accept();
+      try {
+        // options may be longer than writeUTF allows, so they are written as length-prefixed UTF-8
+        final var bytes = options.getBytes(StandardCharsets.UTF_8);
+        final var out = new DataOutputStream(client.getOutputStream());
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+        return client;
+      } catch (final IOException e) {
+        client.close();
+        throw e;
+      }
+    }
+
+    public void release() {
+      try {
+        server.close();
+      } catch (final IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void discard() throws IOException, InterruptedException {
+      process.destroyForcibly().waitFor();
+      server.close();
+    }
+  }
+}
@@ -2,28 +2,30 @@ package dev.mcenv.mch;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.GsonBuilder;
-import org.apache.commons.math3.exception.NotStrictlyPositiveException;
 import org.commonmark.ext.gfm.tables.*;
 import org.commonmark.node.Code;
 import org.commonmark.node.Document;
 import org.commonmark.node.Heading;
+import org.commonmark.node.Node;
 import org.commonmark.node.Text;
 import org.commonmark.renderer.html.HtmlRenderer;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static dev.mcenv.mch.Util.*;
 
 sealed interface Format permits Format.Json, Format.Md {
+  double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 100.0};
+
   static Format parse(final String format) {
     return switch (format) {
       case "json" -> Json.INSTANCE;
@@ -32,6 +34,10 @@ sealed interface Format permits Format.Json, Format.Md {
     };
   }
 
+  static String percentileName(final double percentile) {
+    return percentile == 100.0 ? "max" : "p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+  }
+
   void write(
     final MchConfig mchConfig,
     final String mcVersion,
@@ -50,66 +56,13 @@ sealed interface Format permits Format.Json, Format.Md {
       final String mcVersion,
       final Collection<RunResult> runResults
     ) throws IOException {
-      final var unit = String.format("%s/op", abbreviate(mchConfig.timeUnit()));
       try (final var out = new BufferedOutputStream(Files.newOutputStream(Paths.get(mchConfig.output() + ".json")))) {
-        final String mchVersion;
-        try (final var version = Main.class.getClassLoader().getResourceAsStream("version")) {
-          mchVersion = new String(Objects.requireNonNull(version).readAllBytes(), StandardCharsets.UTF_8).trim();
-        }
-        final var forks = mchConfig.forks();
-        final var jvm = getCurrentJvm();
-        final var jvmArgs = mchConfig.jvmArgs();
-        final var jdkVersion = System.getProperty("java.version");
-        final var vmName = System.getProperty("java.vm.name");
-        final var vmVersion = System.getProperty("java.vm.version");
-        final var mc = mchConfig.mc();
-        final var mcArgs = mchConfig.mcArgs();
-        final var warmupIterations = mchConfig.warmupIterations();
-        final var warmupTime = String.format("%d %s", mchConfig.time(), abbreviate(TimeUnit.SECONDS));
-        final var measurementIterations = mchConfig.measurementIterations();
-        final var measurementTime = String.format("%d %s", mchConfig.time(), abbreviate(TimeUnit.SECONDS));
-        final var entries = runResults
-          .stream()
-          .map(runResult -> {
-            try {
-              return new Results.Result(
-                runResult.group(),
-                runResult.benchmark(),
-                runResult.mode().toString(),
-                mchConfig.measurementIterations() * mchConfig.forks(),
-                convert(Statistics.mean(runResult.scores()), TimeUnit.NANOSECONDS, mchConfig.timeUnit()),
-                convert(Statistics.error(runResult.scores()), TimeUnit.NANOSECONDS, mchConfig.timeUnit()),
-                unit,
-                runResult.scores().stream().map(score -> convert(score, TimeUnit.NANOSECONDS, mchConfig.timeUnit())).toList()
-              );
-            } catch (NotStrictlyPositiveException e) {
-              throw new RuntimeException(e);
-            }
-          })
-          .toList();
-
         final var gson = new GsonBuilder()
           .setPrettyPrinting()
           .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
           .create();
         out.write(gson
-          .toJson(new Results(
-            mchVersion,
-            forks,
-            jvm,
-            jvmArgs,
-            jdkVersion,
-            vmName,
-            vmVersion,
-            mc,
-            mcArgs,
-            mcVersion,
-            warmupIterations,
-            warmupTime,
-            measurementIterations,
-            measurementTime,
-            entries
-          ))
+          .toJson(Results.of(mchConfig, mcVersion, runResults))
           .getBytes(StandardCharsets.UTF_8)
         );
       }
@@ -146,105 +99,236 @@ sealed interface Format permits Format.Json, Format.Md {
               {
                 final var tr = new TableRow();
                 thead.appendChild(tr);
-                {
-                  final var group = new TableCell();
-                  tr.appendChild(group);
-                  group.setHeader(true);
-                  group.setAlignment(TableCell.Alignment.LEFT);
-                  group.appendChild(new Text("Group"));
-                }
-                {
-                  final var benchmark = new TableCell();
-                  tr.appendChild(benchmark);
-                  benchmark.setHeader(true);
-                  benchmark.setAlignment(TableCell.Alignment.LEFT);
-                  benchmark.appendChild(new Text("Benchmark"));
-                }
-                {
-                  final var mode = new TableCell();
-                  tr.appendChild(mode);
-                  mode.setHeader(true);
-                  mode.setAlignment(TableCell.Alignment.CENTER);
-                  mode.appendChild(new Text("Mode"));
-                }
-                {
-                  final var count = new TableCell();
-                  tr.appendChild(count);
-                  count.setHeader(true);
-                  count.setAlignment(TableCell.Alignment.RIGHT);
-                  count.appendChild(new Text("Count"));
-                }
-                {
-                  final var score = new TableCell();
-                  tr.appendChild(score);
-                  score.setHeader(true);
-                  score.setAlignment(TableCell.Alignment.RIGHT);
-                  score.appendChild(new Text("Score"));
-                }
-                {
-                  final var error = new TableCell();
-                  tr.appendChild(error);
-                  error.setHeader(true);
-                  error.setAlignment(TableCell.Alignment.RIGHT);
-                  error.appendChild(new Text("Error"));
-                }
-                {
-                  final var unit = new TableCell();
-                  tr.appendChild(unit);
-                  unit.setHeader(true);
-                  unit.setAlignment(TableCell.Alignment.LEFT);
-                  unit.appendChild(new Text("Unit"));
-                }
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Group"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Benchmark"));
+                appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Mode"));
+                appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Benchmark Mode"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Count"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Outliers"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Score"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text(String.format("Error (%s%%)", BigDecimal.valueOf(mchConfig.confidence() * 100.0).stripTrailingZeros().toPlainString())));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Unit"));
               }
             }
-            final var unitString = String.format("%s/op", abbreviate(mchConfig.timeUnit()));
             for (final var runResult : runResults) {
               final var tbody = new TableBody();
               table.appendChild(tbody);
               {
                 final var tr = new TableRow();
                 tbody.appendChild(tr);
-                {
-                  final var group = new TableCell();
-                  tr.appendChild(group);
-                  group.setAlignment(TableCell.Alignment.LEFT);
-                  group.appendChild(new Text(runResult.group()));
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.group()));
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Code(runResult.name()));
+                appendCell(tr, false, TableCell.Alignment.CENTER, new Text(runResult.mode().toString()));
+                appendCell(tr, false, TableCell.Alignment.CENTER, new Text(runResult.benchmarkMode().toString()));
+                appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.valueOf(runResult.count())));
+                appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.valueOf(runResult.outliers())));
+                appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", runResult.benchmarkMode().convertScore(runResult.score(), mchConfig.timeUnit()))));
+                appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("± %f", runResult.benchmarkMode().convertScore(runResult.error(mchConfig.confidence()), mchConfig.timeUnit()))));
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.benchmarkMode().unit(mchConfig.timeUnit())));
+              }
+            }
+          }
+          if (runResults.stream().anyMatch(runResult -> runResult.baseline() != null)) {
+            {
+              final var heading = new Heading();
+              document.appendChild(heading);
+              heading.setLevel(3);
+              heading.appendChild(new Text("Baseline-corrected Results"));
+            }
+            {
+              final var table = new TableBlock();
+              document.appendChild(table);
+              {
+                final var thead = new TableHead();
+                table.appendChild(thead);
+                final var tr = new TableRow();
+                thead.appendChild(tr);
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Group"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Benchmark"));
+                appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Benchmark Mode"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Score"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Error"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Unit"));
+                appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Distinguishable"));
+              }
+              for (final var runResult : runResults) {
+                if (runResult.baseline() == null) {
+                  continue;
                 }
-                {
-                  final var benchmark = new TableCell();
-                  tr.appendChild(benchmark);
-                  benchmark.setAlignment(TableCell.Alignment.LEFT);
-                  benchmark.appendChild(new Code(runResult.benchmark()));
+                final var tbody = new TableBody();
+                table.appendChild(tbody);
+                final var tr = new TableRow();
+                tbody.appendChild(tr);
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.group()));
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Code(runResult.name()));
+                appendCell(tr, false, TableCell.Alignment.CENTER, new Text(runResult.benchmarkMode().toString()));
+                appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", runResult.benchmarkMode().convertScore(runResult.correctedScore(), mchConfig.timeUnit()))));
+                appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("± %f", runResult.benchmarkMode().convertScore(runResult.correctedError(mchConfig.confidence()), mchConfig.timeUnit()))));
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.benchmarkMode().unit(mchConfig.timeUnit())));
+                appendCell(tr, false, TableCell.Alignment.CENTER, new Text(runResult.isIndistinguishable(mchConfig.confidence()) ? "no" : "yes"));
+              }
+            }
+          }
+          if (runResults.stream().anyMatch(runResult -> !runResult.secondaries().isEmpty())) {
+            {
+              final var heading = new Heading();
+              document.appendChild(heading);
+              heading.setLevel(3);
+              heading.appendChild(new Text("Secondary Metrics"));
+            }
+            {
+              final var table = new TableBlock();
+              document.appendChild(table);
+              {
+                final var thead = new TableHead();
+                table.appendChild(thead);
+                final var tr = new TableRow();
+                thead.appendChild(tr);
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Group"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Benchmark"));
+                appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Mode"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Metric"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Score"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Error"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Unit"));
+              }
+              for (final var runResult : runResults) {
+                for (final var entry : runResult.secondaries().entrySet()) {
+                  final var secondary = entry.getValue();
+                  final var tbody = new TableBody();
+                  table.appendChild(tbody);
+                  final var tr = new TableRow();
+                  tbody.appendChild(tr);
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.group()));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Code(runResult.name()));
+                  appendCell(tr, false, TableCell.Alignment.CENTER, new Text(runResult.mode().toString()));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(entry.getKey()));
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", secondary.score())));
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(secondary.scores().length < 2 ? "" : String.format("± %f", secondary.error(mchConfig.confidence()))));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(secondary.unit()));
                 }
-                {
-                  final var mode = new TableCell();
-                  tr.appendChild(mode);
-                  mode.setAlignment(TableCell.Alignment.CENTER);
-                  mode.appendChild(new Text(runResult.mode().toString()));
+              }
+            }
+          }
+          if (runResults.stream().anyMatch(runResult -> runResult.histogram() != null)) {
+            {
+              final var heading = new Heading();
+              document.appendChild(heading);
+              heading.setLevel(3);
+              heading.appendChild(new Text("Percentiles"));
+            }
+            {
+              final var table = new TableBlock();
+              document.appendChild(table);
+              {
+                final var thead = new TableHead();
+                table.appendChild(thead);
+                final var tr = new TableRow();
+                thead.appendChild(tr);
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Group"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Benchmark"));
+                appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Mode"));
+                for (final var percentile : PERCENTILES) {
+                  appendCell(tr, true, TableCell.Alignment.RIGHT, new Text(percentileName(percentile)));
                 }
-                {
-                  final var count = new TableCell();
-                  tr.appendChild(count);
-                  count.setAlignment(TableCell.Alignment.RIGHT);
-                  count.appendChild(new Text(String.valueOf(mchConfig.measurementIterations() * mchConfig.forks())));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Unit"));
+              }
+              final var unitString = abbreviate(mchConfig.timeUnit());
+              for (final var runResult : runResults) {
+                if (runResult.histogram() == null) {
+                  continue;
                 }
-                {
-                  final var score = new TableCell();
-                  tr.appendChild(score);
-                  score.setAlignment(TableCell.Alignment.RIGHT);
-                  score.appendChild(new Text(String.format("%f", convert(Statistics.mean(runResult.scores()), TimeUnit.NANOSECONDS, mchConfig.timeUnit()))));
+                final var tbody = new TableBody();
+                table.appendChild(tbody);
+                final var tr = new TableRow();
+                tbody.appendChild(tr);
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.group()));
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Code(runResult.name()));
+                appendCell(tr, false, TableCell.Alignment.CENTER, new Text(runResult.mode().toString()));
+                for (final var percentile : PERCENTILES) {
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", convert(runResult.histogram().valueAtPercentile(percentile), TimeUnit.NANOSECONDS, mchConfig.timeUnit()))));
                 }
-                {
-                  final var error = new TableCell();
-                  tr.appendChild(error);
-                  error.setAlignment(TableCell.Alignment.RIGHT);
-                  error.appendChild(new Text(String.format("± %f", convert(Statistics.error(runResult.scores()), TimeUnit.NANOSECONDS, mchConfig.timeUnit()))));
+                appendCell(tr, false, TableCell.Alignment.LEFT, new Text(unitString));
+              }
+            }
+          }
+          if (runResults.stream().anyMatch(runResult -> !runResult.breakdown().isEmpty())) {
+            final var unitString = BenchmarkMode.AVERAGE_TIME.unit(mchConfig.timeUnit());
+            {
+              final var heading = new Heading();
+              document.appendChild(heading);
+              heading.setLevel(3);
+              heading.appendChild(new Text("Command Breakdown"));
+            }
+            {
+              final var table = new TableBlock();
+              document.appendChild(table);
+              {
+                final var thead = new TableHead();
+                table.appendChild(thead);
+                final var tr = new TableRow();
+                thead.appendChild(tr);
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Group"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Benchmark"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Location"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Command"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Executions/op"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Self Time"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Share"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Unit"));
+              }
+              for (final var runResult : runResults) {
+                final var totalTime = CommandBreakdown.totalTime(runResult.breakdown());
+                for (final var cost : runResult.breakdown()) {
+                  final var tbody = new TableBody();
+                  table.appendChild(tbody);
+                  final var tr = new TableRow();
+                  tbody.appendChild(tr);
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.group()));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Code(runResult.name()));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(cost.locations().stream().map(CommandBreakdown.Location::toString).collect(Collectors.joining(", "))));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Code(cost.command()));
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", cost.executions())));
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", convert(cost.time(), TimeUnit.NANOSECONDS, mchConfig.timeUnit()))));
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%.2f%%", 100.0 * cost.time() / totalTime)));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(unitString));
                 }
-                {
-                  final var unit = new TableCell();
-                  tr.appendChild(unit);
-                  unit.setAlignment(TableCell.Alignment.LEFT);
-                  unit.appendChild(new Text(unitString));
+              }
+            }
+            {
+              final var heading = new Heading();
+              document.appendChild(heading);
+              heading.setLevel(3);
+              heading.appendChild(new Text("Function Breakdown"));
+            }
+            {
+              final var table = new TableBlock();
+              document.appendChild(table);
+              {
+                final var thead = new TableHead();
+                table.appendChild(thead);
+                final var tr = new TableRow();
+                thead.appendChild(tr);
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Group"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Benchmark"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Function"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Self Time"));
+                appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Share"));
+                appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Unit"));
+              }
+              for (final var runResult : runResults) {
+                final var totalTime = CommandBreakdown.totalTime(runResult.breakdown());
+                for (final var entry : CommandBreakdown.functionTimes(runResult.breakdown()).entrySet()) {
+                  final var tbody = new TableBody();
+                  table.appendChild(tbody);
+                  final var tr = new TableRow();
+                  tbody.appendChild(tr);
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(runResult.group()));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Code(runResult.name()));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Code(entry.getKey()));
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", convert(entry.getValue(), TimeUnit.NANOSECONDS, mchConfig.timeUnit()))));
+                  appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%.2f%%", 100.0 * entry.getValue() / totalTime)));
+                  appendCell(tr, false, TableCell.Alignment.LEFT, new Text(unitString));
                 }
               }
             }
@@ -258,5 +342,81 @@ sealed interface Format permits Format.Json, Format.Md {
           .render(document, out);
       }
     }
+
+    public static void writeTrends(
+      final MchConfig mchConfig,
+      final List<History.Trend> trends
+    ) throws IOException {
+      try (final var out = new OutputStreamWriter(new BufferedOutputStream(Files.newOutputStream(Paths.get(mchConfig.output() + "-trends.md"))), StandardCharsets.UTF_8)) {
+        final var document = new Document();
+        {
+          final var heading = new Heading();
+          document.appendChild(heading);
+          heading.setLevel(3);
+          heading.appendChild(new Text("Trends"));
+        }
+        {
+          final var table = new TableBlock();
+          document.appendChild(table);
+          {
+            final var thead = new TableHead();
+            table.appendChild(thead);
+            final var tr = new TableRow();
+            thead.appendChild(tr);
+            appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Group"));
+            appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Benchmark"));
+            appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Mode"));
+            appendCell(tr, true, TableCell.Alignment.CENTER, new Text("Benchmark Mode"));
+            appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Runs"));
+            appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Trend"));
+            appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("First"));
+            appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Last"));
+            appendCell(tr, true, TableCell.Alignment.RIGHT, new Text("Change"));
+            appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Unit"));
+            appendCell(tr, true, TableCell.Alignment.LEFT, new Text("Change Points"));
+          }
+          for (final var trend : trends) {
+            final var tbody = new TableBody();
+            table.appendChild(tbody);
+            final var tr = new TableRow();
+            tbody.appendChild(tr);
+            final var changePoints = trend.points().stream()
+              .filter(History.Point::changePoint)
+              .map(point -> point.time() + " (" + point.mcVersion() + ")")
+              .toList();
+            appendCell(tr, false, TableCell.Alignment.LEFT, new Text(trend.group()));
+            appendCell(tr, false, TableCell.Alignment.LEFT, new Code(trend.benchmark()));
+            appendCell(tr, false, TableCell.Alignment.CENTER, new Text(trend.mode()));
+            appendCell(tr, false, TableCell.Alignment.CENTER, new Text(trend.benchmarkMode()));
+            appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.valueOf(trend.points().size())));
+            appendCell(tr, false, TableCell.Alignment.LEFT, new Text(trend.sparkline()));
+            appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", trend.first().result().score())));
+            appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%f", trend.last().result().score())));
+            appendCell(tr, false, TableCell.Alignment.RIGHT, new Text(String.format("%+.2f%%", trend.change() * 100.0)));
+            appendCell(tr, false, TableCell.Alignment.LEFT, new Text(trend.unit()));
+            appendCell(tr, false, TableCell.Alignment.LEFT, new Text(String.join(", ", changePoints)));
+          }
+        }
+
+        HtmlRenderer
+          .builder()
+          .extensions(List.of(TablesExtension.create()))
+          .build()
+          .render(document, out);
+      }
+    }
+
+    private static void appendCell(
+      final TableRow tr,
+      final boolean header,
+      final TableCell.Alignment alignment,
+      final Node content
+    ) {
+      final var cell = new TableCell();
+      tr.appendChild(cell);
+      cell.setHeader(header);
+      cell.setAlignment(alignment);
+      cell.appendChild(content);
+    }
   }
 }
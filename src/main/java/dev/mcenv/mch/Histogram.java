@@ -0,0 +1,163 @@
+package dev.mcenv.mch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// A log-linear histogram of non-negative values with a relative precision of about 1.6%.
+// Recording does not allocate, so it can be used inside measured loops.
+final class Histogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+  private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+  private final long[] counts = new long[BUCKET_COUNT];
+  private long totalCount;
+  private long max;
+  private double sum;
+
+  public void record(
+    final long value
+  ) {
+    ++counts[index(Math.max(0L, value))];
+    ++totalCount;
+    max = Math.max(max, value);
+    sum += value;
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0L);
+    totalCount = 0L;
+    max = 0L;
+    sum = 0.0;
+  }
+
+  public void merge(
+    final Histogram other
+  ) {
+    for (var i = 0; i < BUCKET_COUNT; ++i) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    max = Math.max(max, other.max);
+    sum += other.sum;
+  }
+
+  public long totalCount() {
+    return totalCount;
+  }
+
+  public long max() {
+    return max;
+  }
+
+  public double mean() {
+    return sum / totalCount;
+  }
+
+  public double standardDeviation() {
+    final var mean = mean();
+    var result = 0.0;
+    for (var i = 0; i < BUCKET_COUNT; ++i) {
+      if (counts[i] != 0L) {
+        result += counts[i] * Math.pow(middleValue(i) - mean, 2.0);
+      }
+    }
+    return Math.sqrt(result / (totalCount - 1));
+  }
+
+  public long valueAtPercentile(
+    final double percentile
+  ) {
+    final var target = Math.max(1L, (long) Math.ceil(percentile / 100.0 * totalCount));
+    var count = 0L;
+    for (var i = 0; i < BUCKET_COUNT; ++i) {
+      count += counts[i];
+      if (count >= target) {
+        return Math.min(highestValue(i), max);
+      }
+    }
+    return max;
+  }
+
+  public int size() {
+    var size = Long.BYTES + Double.BYTES + Integer.BYTES;
+    for (final var count : counts) {
+      if (count != 0L) {
+        size += Short.BYTES + Long.BYTES;
+      }
+    }
+    return size;
+  }
+
+  public void store(
+    final DataOutput out
+  ) throws IOException {
+    out.writeLong(max);
+    out.writeDouble(sum);
+    var nonEmpty = 0;
+    for (final var count : counts) {
+      if (count != 0L) {
+        ++nonEmpty;
+      }
+    }
+    out.writeInt(nonEmpty);
+    for (var i = 0; i < BUCKET_COUNT; ++i) {
+      if (counts[i] != 0L) {
+        out.writeShort(i);
+        out.writeLong(counts[i]);
+      }
+    }
+  }
+
+  public static Histogram load(
+    final DataInput in
+  ) throws IOException {
+    final var histogram = new Histogram();
+    histogram.max = in.readLong();
+    histogram.sum = in.readDouble();
+    final var nonEmpty = in.readInt();
+    for (var i = 0; i < nonEmpty; ++i) {
+      final var index = in.readShort();
+      final var count = in.readLong();
+      histogram.counts[index] = count;
+      histogram.totalCount += count;
+    }
+    return histogram;
+  }
+
+  private static int index(
+    final long value
+  ) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    final var shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+  }
+
+  private static long lowestValue(
+    final int index
+  ) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final var offset = index - SUB_BUCKET_COUNT;
+    final var shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+    return (long) (offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT) << shift;
+  }
+
+  private static long highestValue(
+    final int index
+  ) {
+    return index + 1 < BUCKET_COUNT ? lowestValue(index + 1) - 1 : Long.MAX_VALUE;
+  }
+
+  private static double middleValue(
+    final int index
+  ) {
+    return (lowestValue(index) + (double) highestValue(index)) / 2.0;
+  }
+}
@@ -0,0 +1,202 @@
+package dev.mcenv.mch;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+// An append-only history of results with one compact JSON entry per line.
+final class History {
+  private static final Gson GSON = new GsonBuilder()
+    .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+    .create();
+
+  public static void append(
+    final Path path,
+    final Results results
+  ) throws IOException {
+    final var parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    var line = GSON.toJson(new Entry(System.currentTimeMillis(), results)) + "\n";
+    if (endsWithPartialLine(path)) {
+      // a run interrupted while appending leaves a partial line, which must not swallow this entry
+      line = "\n" + line;
+    }
+    Files.writeString(path, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  private static boolean endsWithPartialLine(
+    final Path path
+  ) throws IOException {
+    if (!Files.isRegularFile(path)) {
+      return false;
+    }
+    try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final var size = channel.size();
+      if (size == 0L) {
+        return false;
+      }
+      final var last = ByteBuffer.allocate(1);
+      channel.read(last, size - 1L);
+      return last.get(0) != '\n';
+    }
+  }
+
+  public static List<Entry> read(
+    final Path path
+  ) throws IOException {
+    final var entries = new ArrayList<Entry>();
+    try (final var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        try {
+          entries.add(GSON.fromJson(line, Entry.class));
+        } catch (final JsonParseException e) {
+          System.err.println("Skipping a malformed history entry");
+        }
+      }
+    }
+    entries.sort(Comparator.comparingLong(Entry::timestamp));
+    return entries;
+  }
+
+  // Indexes the history by benchmark and marks the runs whose scores differ significantly from the preceding run by
+  // more than the threshold.
+  public static List<Trend> trends(
+    final List<Entry> entries,
+    final double confidence,
+    final double threshold
+  ) {
+    final var trends = new LinkedHashMap<String, Trend>();
+    for (final var entry : entries) {
+      for (final var result : entry.results().results()) {
+        final var benchmarkMode = Objects.requireNonNullElse(result.benchmarkMode(), BenchmarkMode.AVERAGE_TIME.toString());
+        final var key = String.join("\0", result.group(), result.name(), result.mode(), benchmarkMode, result.unit());
+        final var trend = trends.computeIfAbsent(key, k -> new Trend(result.group(), result.name(), result.mode(), benchmarkMode, result.unit(), new ArrayList<>()));
+        final var points = trend.points();
+        var changePoint = false;
+        if (!points.isEmpty() && result.scores() != null && result.scores().length >= 2) {
+          final var previous = points.get(points.size() - 1);
+          if (previous.result().scores() != null && previous.result().scores().length >= 2) {
+            final var change = Math.abs(result.score() / previous.result().score() - 1.0);
+            changePoint = change > threshold && Statistics.pValue(previous.result().scores(), result.scores()) < 1.0 - confidence;
+          }
+        }
+        points.add(new Point(entry.timestamp(), entry.results().mcVersion(), result, changePoint));
+      }
+    }
+    return new ArrayList<>(trends.values());
+  }
+
+  public static void report(
+    final MchConfig mchConfig
+  ) throws IOException {
+    if (mchConfig.history() == null) {
+      throw new IllegalStateException("No history is configured");
+    }
+    final var path = Paths.get(mchConfig.history());
+    if (!Files.isRegularFile(path)) {
+      throw new IllegalStateException("No history was found: " + path);
+    }
+    final var trends = trends(read(path), mchConfig.confidence(), mchConfig.regressionThreshold());
+    for (final var trend : trends) {
+      final var first = trend.first().result();
+      final var last = trend.last().result();
+      System.out.printf(
+        "%s %s %s %s: %s %f -> %f %s (%+.2f%%, %d runs)\n",
+        trend.group(),
+        trend.benchmark(),
+        trend.mode(),
+        trend.benchmarkMode(),
+        trend.sparkline(),
+        first.score(),
+        last.score(),
+        trend.unit(),
+        trend.change() * 100.0,
+        trend.points().size()
+      );
+      for (final var point : trend.points()) {
+        if (point.changePoint()) {
+          System.out.printf("  change point at %s (%s)\n", point.time(), point.mcVersion());
+        }
+      }
+    }
+    Format.Md.writeTrends(mchConfig, trends);
+  }
+
+  @Keep
+  record Entry(
+    @Keep long timestamp,
+    @Keep Results results
+  ) {
+  }
+
+  record Trend(
+    String group,
+    String benchmark,
+    String mode,
+    String benchmarkMode,
+    String unit,
+    List<Point> points
+  ) {
+    private static final char[] BARS = {'▁', '▂', '▃', '▄', '▅', '▆', '▇', '█'};
+    private static final int SPARKLINE_LENGTH = 20;
+
+    public Point first() {
+      return points.get(0);
+    }
+
+    public Point last() {
+      return points.get(points.size() - 1);
+    }
+
+    public double change() {
+      return last().result().score() / first().result().score() - 1.0;
+    }
+
+    public String sparkline() {
+      final var from = Math.max(0, points.size() - SPARKLINE_LENGTH);
+      var min = Double.POSITIVE_INFINITY;
+      var max = Double.NEGATIVE_INFINITY;
+      for (var i = from; i < points.size(); ++i) {
+        min = Math.min(min, points.get(i).result().score());
+        max = Math.max(max, points.get(i).result().score());
+      }
+      final var builder = new StringBuilder();
+      for (var i = from; i < points.size(); ++i) {
+        final var score = points.get(i).result().score();
+        final var level = max == min ? 0 : (int) ((score - min) / (max - min) * (BARS.length - 1));
+        builder.append(BARS[level]);
+      }
+      return builder.toString();
+    }
+  }
+
+  record Point(
+    long timestamp,
+    String mcVersion,
+    Results.Result result,
+    boolean changePoint
+  ) {
+    public String time() {
+      return Instant.ofEpochMilli(timestamp).truncatedTo(ChronoUnit.SECONDS).toString();
+    }
+  }
+}
@@ -16,8 +16,12 @@ public final class Main {
     System.out.println("Starting dev.mcenv.mch.Main");
 
     try {
-      validateEula();
       final var mchConfig = loadConfig(args);
+      if (mchConfig.trend()) {
+        History.report(mchConfig);
+        return;
+      }
+      validateEula();
       final var serverProperties = ServerProperties.load();
       final var mcVersion = Installer.install(mchConfig, serverProperties);
       new Runner(mchConfig, serverProperties.levelName(), mcVersion).run();
@@ -1,13 +1,24 @@
 package dev.mcenv.mch;
 
+import com.mojang.brigadier.Command;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.ParseResults;
+import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import dev.mcenv.spy.Commands;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.mojang.brigadier.arguments.StringArgumentType.string;
@@ -22,20 +33,53 @@ public final class MchCommands implements Commands {
   private static final String START = "mch:start";
   private static final String CHECK = "mch:check";
   private static final String LOOP = "mch:loop";
+  private static final String TEARDOWN_TRIAL = "mch:teardown.trial";
   private static final String POST = "mch:post";
+  private static final String TICK = "mch:tick";
+  private static final int STEADY_STATE_WINDOW = 3;
+  private static final long CALIBRATED_BATCH_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final int MAX_BATCH_SIZE = 1 << 20;
+  private static final String SPRINT = "tick sprint 1000000d";
+  private static final String SPRINT_STOP = "tick sprint stop";
+  private static final ObjectName SERVER_STATISTICS;
+
+  static {
+    try {
+      SERVER_STATISTICS = new ObjectName("net.minecraft.server:type=Server");
+    } catch (final MalformedObjectNameException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
   private Socket socket;
+  private DataOutputStream out;
   private int limited = 0;
+  private Options.Iteration pooledOptions;
+  private boolean dataPacksSwitched;
+  private boolean setupPending;
   private boolean maxCommandChainLengthExceeded = true;
   private long startTime;
-  private int iterationCount;
-  private int operationCount;
+  private long operationCount;
+  private int benchmarkIndex;
+  private boolean measuring;
+  private int warmupCount;
+  private int measurementCount;
+  private double[] warmupScores;
   private double[] scores;
+  private Histogram histogram;
+  private long lastTime;
+  private int batchSize;
+  private boolean calibrating;
+  private boolean ticking;
+  private ParsingThreads parsingThreads;
+  private int ticksPerIteration;
   private ParseResults<Object> run;
   private ParseResults<Object> loop;
   private ParseResults<Object> post;
   private ParseResults<Object> setupIteration;
   private ParseResults<Object> teardownIteration;
+  private ParseResults<Object> setupTrial;
+  private ParseResults<Object> teardownTrial;
 
   @Keep
   @Override
@@ -52,22 +96,86 @@ public final class MchCommands implements Commands {
     );
 
     final var options = Options.parse(args);
-    if (options instanceof Options.Setup setupOptions) {
-      registerSetup(dispatcher, setupOptions);
-    } else if (options instanceof Options.Iteration iterationOptions) {
-      try {
-        socket = new Socket((String) null, iterationOptions.port());
-        switch (iterationOptions.mode()) {
-          case PARSING -> registerParsingIteration(dispatcher, iterationOptions);
-          case EXECUTE -> registerExecuteIteration(dispatcher, iterationOptions);
-          case FUNCTION -> registerFunctionIteration(dispatcher, iterationOptions);
+    try {
+      if (options instanceof Options.Setup setupOptions) {
+        registerSetup(dispatcher, setupOptions);
+      } else if (options instanceof Options.Iteration iterationOptions) {
+        connect(iterationOptions.port());
+        registerIteration(dispatcher, iterationOptions);
+      } else if (options instanceof Options.Pool poolOptions) {
+        connect(poolOptions.port());
+        if (pooledOptions == null) {
+          registerPool(dispatcher);
+        } else {
+          registerIteration(dispatcher, pooledOptions);
         }
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Commands are registered again whenever data packs are switched, which reloads them, so the socket is kept.
+  private void connect(
+    final int port
+  ) throws IOException {
+    if (socket == null) {
+      socket = new Socket((String) null, port);
+      socket.setTcpNoDelay(true);
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      Message.writeHeader(out);
+      out.flush();
+    }
+  }
+
+  private void registerIteration(
+    final CommandDispatcher<Object> dispatcher,
+    final Options.Iteration options
+  ) throws IOException {
+    switch (options.mode()) {
+      case PARSING -> registerParsingIteration(dispatcher, options);
+      case EXECUTE -> registerExecuteIteration(dispatcher, options);
+      case FUNCTION -> registerFunctionIteration(dispatcher, options);
+      case TICK -> registerTickIteration(dispatcher, options);
+    }
+    for (final var profiler : options.profilers()) {
+      if (profiler instanceof Profiler.Breakdown breakdown) {
+        breakdown.instrument(dispatcher);
       }
     }
   }
 
+  // A pooled server waits in the first load function until the host hands it the options of its fork, and then
+  // registers the commands of the iteration in place of these ones. Functions keep the commands that they were compiled
+  // with, so each of these forwards to the command that is registered under its name when it is executed.
+  private void registerPool(
+    final CommandDispatcher<Object> dispatcher
+  ) {
+    for (final var name : List.of(LIMIT, SETUP, START, CHECK, LOOP, TEARDOWN_TRIAL, POST, TICK)) {
+      dispatcher.register(literal(name).executes(new Command<>() {
+        @Override
+        public int run(
+          final CommandContext<Object> c
+        ) throws CommandSyntaxException {
+          if (pooledOptions == null && LIMIT.equals(name)) {
+            try {
+              final var in = new DataInputStream(socket.getInputStream());
+              final var bytes = new byte[in.readInt()];
+              in.readFully(bytes);
+              pooledOptions = (Options.Iteration) Options.parse(new String(bytes, StandardCharsets.UTF_8));
+              registerIteration(dispatcher, pooledOptions);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+          final var command = dispatcher.getRoot().getChild(name).getCommand();
+          // ticks may run before the options have arrived
+          return command == this ? 0 : command.run(c);
+        }
+      }));
+    }
+  }
+
   private void registerSetup(
     final CommandDispatcher<Object> dispatcher,
     final Options.Setup options
@@ -97,19 +205,19 @@ public final class MchCommands implements Commands {
     registerConst(dispatcher, START);
     registerConst(dispatcher, CHECK);
     registerConst(dispatcher, LOOP);
-    registerConst(dispatcher, POST);
+    registerTeardownTrial(dispatcher);
+    dispatcher.register(literal(POST).executes(c -> stop(dispatcher, c.getSource())));
+    registerConst(dispatcher, TICK);
   }
 
   private void registerParsingIteration(
     final CommandDispatcher<Object> dispatcher,
     final Options.Iteration options
   ) throws IOException {
-    final var warmupCount = options.warmupIterations();
-    final var measurementCount = options.warmupIterations() + options.measurementIterations();
     final var time = TimeUnit.SECONDS.toNanos(options.time());
-    scores = new double[options.measurementIterations()];
+    resetIterations(options);
 
-    final var command = options.benchmark();
+    final var command = options.benchmarks().get(0);
 
     dispatcher.register(literal(LIMIT).executes(c -> dispatcher.execute("gamerule maxCommandChainLength 2147483647", c.getSource())));
 
@@ -119,30 +227,36 @@ public final class MchCommands implements Commands {
       literal(START).executes(c -> {
         printIteration(options);
 
-        var startTime = System.nanoTime();
         final var source = c.getSource();
+        if (options.threads() > 1) {
+          parsingThreads = new ParsingThreads(options.threads() - 1, dispatcher, command, source);
+        }
+
+        startProfilers(options);
+        startParsingThreads();
+        var startTime = System.nanoTime();
+        lastTime = startTime;
 
         while (true) {
-          dispatcher.parse(command, source);
+          for (var i = 0; i < batchSize; ++i) {
+            dispatcher.parse(command, source);
+          }
           final var stopTime = System.nanoTime();
-          ++operationCount;
+          operationCount += batchSize;
+          recordBatch(stopTime);
 
-          if (stopTime - startTime >= time) {
-            if (iterationCount < measurementCount) {
-              final var result = (double) (stopTime - startTime) / (double) operationCount;
-              if (iterationCount < warmupCount) {
-                System.out.println("Warmup iteration: " + result + " ns/op");
-              } else {
-                System.out.println("Measurement iteration: " + result + " ns/op");
-                scores[iterationCount - warmupCount] = result;
-              }
-            } else {
+          if (options.singleShot() || stopTime - startTime >= time) {
+            final var result = (double) (stopParsingThreads(stopTime) - startTime) / (double) operationCount;
+            stopProfilers(options, result);
+            if (completeIteration(options, result)) {
               return 0;
             }
 
-            ++iterationCount;
             operationCount = 0;
+            startProfilers(options);
+            startParsingThreads();
             startTime = System.nanoTime();
+            lastTime = startTime;
           }
         }
       })
@@ -152,29 +266,47 @@ public final class MchCommands implements Commands {
 
     registerConst(dispatcher, LOOP);
 
+    registerTeardownTrial(dispatcher);
+
     dispatcher.register(
       literal(POST).executes(c -> {
         try {
-          try (final var out = new ObjectOutputStream(socket.getOutputStream())) {
-            out.writeObject(new Message.RunResult(scores));
-          }
+          out.close();
           socket.close();
         } catch (IOException e) {
           throw new RuntimeException(e);
         }
-        return 0;
+        return stop(dispatcher, c.getSource());
       })
     );
+
+    registerConst(dispatcher, TICK);
+  }
+
+  private void startParsingThreads() {
+    if (parsingThreads != null) {
+      parsingThreads.start(batchSize);
+    }
+  }
+
+  // Adds the operations of the helper threads, which may complete their batches after the server thread, and returns
+  // the time at which all threads have stopped. Scores are then wall-clock time per operation of all threads together.
+  private long stopParsingThreads(
+    final long stopTime
+  ) {
+    if (parsingThreads == null) {
+      return stopTime;
+    }
+    operationCount += parsingThreads.stop();
+    return System.nanoTime();
   }
 
   private void registerExecuteIteration(
     final CommandDispatcher<Object> dispatcher,
     final Options.Iteration options
   ) throws IOException {
-    final var warmupCount = options.warmupIterations();
-    final var measurementCount = options.warmupIterations() + options.measurementIterations();
     final var time = TimeUnit.SECONDS.toNanos(options.time());
-    scores = new double[options.measurementIterations()];
+    resetIterations(options);
 
     dispatcher.register(literal(LIMIT).executes(c -> dispatcher.execute("gamerule maxCommandChainLength 2147483647", c.getSource())));
 
@@ -184,34 +316,34 @@ public final class MchCommands implements Commands {
       literal(START).executes(c -> {
         printIteration(options);
 
+        startProfilers(options);
         var startTime = System.nanoTime();
+        lastTime = startTime;
         final var source = c.getSource();
-        final var command = dispatcher.parse(options.benchmark(), source);
+        final var command = dispatcher.parse(options.benchmarks().get(0), source);
 
         while (true) {
-          try {
-            dispatcher.execute(command);
-          } catch (final CommandSyntaxException ignored) {
+          for (var i = 0; i < batchSize; ++i) {
+            try {
+              dispatcher.execute(command);
+            } catch (final CommandSyntaxException ignored) {
+            }
           }
           final var stopTime = System.nanoTime();
-          ++operationCount;
+          operationCount += batchSize;
+          recordBatch(stopTime);
 
-          if (stopTime - startTime >= time) {
-            if (iterationCount < measurementCount) {
-              final var result = (double) (stopTime - startTime) / (double) operationCount;
-              if (iterationCount < warmupCount) {
-                System.out.println("Warmup iteration: " + result + " ns/op");
-              } else {
-                System.out.println("Measurement iteration: " + result + " ns/op");
-                scores[iterationCount - warmupCount] = result;
-              }
-            } else {
+          if (options.singleShot() || stopTime - startTime >= time) {
+            final var result = (double) (stopTime - startTime) / (double) operationCount;
+            stopProfilers(options, result);
+            if (completeIteration(options, result)) {
               return 0;
             }
 
-            ++iterationCount;
             operationCount = 0;
+            startProfilers(options);
             startTime = System.nanoTime();
+            lastTime = startTime;
           }
         }
       })
@@ -221,62 +353,55 @@ public final class MchCommands implements Commands {
 
     registerConst(dispatcher, LOOP);
 
+    registerTeardownTrial(dispatcher);
+
     dispatcher.register(
       literal(POST).executes(c -> {
         try {
-          try (final var out = new ObjectOutputStream(socket.getOutputStream())) {
-            out.writeObject(new Message.RunResult(scores));
-          }
+          out.close();
           socket.close();
         } catch (IOException e) {
           throw new RuntimeException(e);
         }
-        return 0;
+        return stop(dispatcher, c.getSource());
       })
     );
+
+    registerConst(dispatcher, TICK);
   }
 
   private void registerFunctionIteration(
     final CommandDispatcher<Object> dispatcher,
     final Options.Iteration options
   ) throws IOException {
-    final var warmupCount = options.warmupIterations();
-    final var measurementCount = options.warmupIterations() + options.measurementIterations();
     final var time = TimeUnit.SECONDS.toNanos(options.time());
-    scores = new double[options.measurementIterations()];
+    resetIterations(options);
 
-    dispatcher.register(
-      literal(LIMIT).executes(c -> {
-        if (options.autoStart() || limited >= 3) {
-          dispatcher.execute("gamerule maxCommandChainLength 2147483647", c.getSource());
-        } else if (limited == 1) {
-          dispatcher.execute("gamerule maxCommandChainLength 0", c.getSource());
-          System.out.println("Execute `/function #load` to start benchmarking " + options.benchmark());
-        }
-        ++limited;
-        return 0;
-      })
-    );
+    registerFunctionLimit(dispatcher, options);
 
-    registerConst(dispatcher, SETUP);
+    dispatcher.register(literal(SETUP).executes(c -> setup(dispatcher, options, c.getSource())));
 
     dispatcher.register(
       literal(START).executes(c -> {
         printIteration(options);
 
         final var source = c.getSource();
-        run = dispatcher.parse("function " + options.benchmark(), source);
+        run = dispatcher.parse("function " + Params.function(options.benchmarks().get(benchmarkIndex)), source);
         loop = dispatcher.parse("function mch:loop", source);
         post = dispatcher.parse("function mch:post", source);
         setupIteration = dispatcher.parse("function #mch:setup.iteration", source);
         teardownIteration = dispatcher.parse("function #mch:teardown.iteration", source);
+        setupTrial = dispatcher.parse("function #mch:setup.trial", source);
+        teardownTrial = dispatcher.parse("function #mch:teardown.trial", source);
 
         dispatcher.execute(setupIteration);
 
+        startProfilers(options);
         startTime = System.nanoTime();
+        lastTime = startTime;
 
         try {
-          dispatcher.execute(run);
+          executeBatch(dispatcher);
         } catch (final CommandSyntaxException e1) {
           System.out.println(e1.getMessage());
           try {
@@ -287,7 +412,7 @@ public final class MchCommands implements Commands {
           }
         }
         dispatcher.execute(loop);
-        ++operationCount;
+        operationCount += batchSize;
         return 0;
       })
     );
@@ -302,37 +427,37 @@ public final class MchCommands implements Commands {
     dispatcher.register(
       literal(LOOP).executes(c -> {
         final var stopTime = System.nanoTime();
-        if (stopTime - startTime >= time) {
-          if (iterationCount < measurementCount) {
-            dispatcher.execute(teardownIteration);
-
-            final var result = (double) (stopTime - startTime) / (double) operationCount;
-            if (iterationCount < warmupCount) {
-              System.out.println("Warmup iteration: " + result + " ns/op");
+        recordBatch(stopTime);
+        if (options.singleShot() || stopTime - startTime >= time) {
+          final var result = (double) (stopTime - startTime) / (double) operationCount;
+          stopProfilers(options, result);
+          dispatcher.execute(teardownIteration);
+
+          if (completeIteration(options, result)) {
+            if (benchmarkIndex < options.benchmarks().size() - 1) {
+              nextBenchmark(dispatcher, options, c.getSource());
             } else {
-              System.out.println("Measurement iteration: " + result + " ns/op");
-              scores[iterationCount - warmupCount] = result;
-            }
-
-            if (iterationCount < measurementCount - 1) {
-              dispatcher.execute(setupIteration);
+              return 0;
             }
           } else {
-            return 0;
+            dispatcher.execute(setupIteration);
           }
 
-          ++iterationCount;
           operationCount = 0;
+          startProfilers(options);
           startTime = System.nanoTime();
+          lastTime = startTime;
         }
 
-        dispatcher.execute(run);
+        executeBatch(dispatcher);
         dispatcher.execute(loop);
-        ++operationCount;
+        operationCount += batchSize;
         return 0;
       })
     );
 
+    registerTeardownTrial(dispatcher);
+
     dispatcher.register(
       literal(POST).executes(c -> {
         try {
@@ -340,23 +465,416 @@ public final class MchCommands implements Commands {
             dispatcher.execute("function #mch:teardown", c.getSource());
           }
 
-          try (final var out = new ObjectOutputStream(socket.getOutputStream())) {
-            if (maxCommandChainLengthExceeded) {
-              System.err.println("maxCommandChainLength exceeded!");
-              out.writeObject(new Message.MaxCommandChainLengthExceeded());
-            } else {
-              out.writeObject(new Message.RunResult(scores));
-            }
+          if (maxCommandChainLengthExceeded) {
+            System.err.println("maxCommandChainLength exceeded!");
+            Message.write(out, new Message.MaxCommandChainLengthExceeded());
           }
+          out.close();
           socket.close();
         } catch (IOException e) {
           throw new RuntimeException(e);
         }
+        return stop(dispatcher, c.getSource());
+      })
+    );
+
+    registerConst(dispatcher, TICK);
+  }
+
+  // Runs the benchmark once per tick from #minecraft:tick after #load has completed, so that the benchmark is measured
+  // together with the rest of the tick. The durations of the ticks are read from the server statistics that are exposed
+  // with enable-jmx-monitoring, which exclude the time the server sleeps between ticks. An iteration spans as many ticks
+  // as the server keeps durations of, so that they are read once per iteration. Iteration fixtures run in a tick of
+  // their own, which is not measured. The trial teardown and mch:post are deferred until the last iteration.
+  private void registerTickIteration(
+    final CommandDispatcher<Object> dispatcher,
+    final Options.Iteration options
+  ) throws IOException {
+    resetIterations(options);
+
+    registerFunctionLimit(dispatcher, options);
+
+    dispatcher.register(literal(SETUP).executes(c -> setup(dispatcher, options, c.getSource())));
+
+    dispatcher.register(
+      literal(START).executes(c -> {
+        printIteration(options);
+
+        final var source = c.getSource();
+        run = dispatcher.parse("function " + Params.function(options.benchmarks().get(benchmarkIndex)), source);
+        setupIteration = dispatcher.parse("function #mch:setup.iteration", source);
+        teardownIteration = dispatcher.parse("function #mch:teardown.iteration", source);
+        setupTrial = dispatcher.parse("function #mch:setup.trial", source);
+        teardownTrial = dispatcher.parse("function #mch:teardown.trial", source);
+
+        final var tickTimes = tickTimes();
+        if (tickTimes == null) {
+          System.err.println("Tick benchmarks require " + ServerProperties.ENABLE_JMX_MONITORING_KEY + "=true in server.properties");
+          return close(dispatcher, source);
+        }
+        ticksPerIteration = tickTimes.length;
+        try {
+          dispatcher.execute(SPRINT, source);
+        } catch (final CommandSyntaxException e) {
+          System.out.println("Ticks are not sprinted, as the tick command is not available");
+        }
+
+        dispatcher.execute(setupIteration);
+        ticking = true;
+        return 0;
+      })
+    );
+
+    registerConst(dispatcher, CHECK);
+
+    registerConst(dispatcher, LOOP);
+
+    registerConst(dispatcher, TEARDOWN_TRIAL);
+
+    registerConst(dispatcher, POST);
+
+    dispatcher.register(
+      literal(TICK).executes(c -> {
+        if (!ticking) {
+          return 0;
+        }
+
+        if (operationCount < ticksPerIteration) {
+          if (operationCount == 0) {
+            startProfilers(options);
+          }
+          dispatcher.execute(run);
+          ++operationCount;
+          return 0;
+        }
+
+        // the durations of the ticks of this iteration, as this tick has not been recorded yet
+        final var tickTimes = tickTimes();
+        var totalTime = 0L;
+        for (final var tickTime : tickTimes) {
+          totalTime += tickTime;
+          if (histogram != null && measuring) {
+            histogram.record(tickTime);
+          }
+        }
+        final var result = (double) totalTime / (double) tickTimes.length;
+        stopProfilers(options, result);
+        dispatcher.execute(teardownIteration);
+
+        operationCount = 0;
+        if (completeIteration(options, result)) {
+          if (benchmarkIndex < options.benchmarks().size() - 1) {
+            nextBenchmark(dispatcher, options, c.getSource());
+          } else {
+            ticking = false;
+            dispatcher.execute(teardownTrial);
+            if (options.lastIterationInGroup()) {
+              dispatcher.execute("function #mch:teardown", c.getSource());
+            }
+            try {
+              dispatcher.execute(SPRINT_STOP, c.getSource());
+            } catch (final CommandSyntaxException ignored) {
+            }
+            return close(dispatcher, c.getSource());
+          }
+        } else {
+          dispatcher.execute(setupIteration);
+        }
+        return 0;
+      })
+    );
+  }
+
+  private void registerFunctionLimit(
+    final CommandDispatcher<Object> dispatcher,
+    final Options.Iteration options
+  ) {
+    dispatcher.register(
+      literal(LIMIT).executes(c -> {
+        if (switchDataPacks(dispatcher, options, c.getSource())) {
+          // the load functions run again once the data packs are reloaded
+          return dispatcher.execute("gamerule maxCommandChainLength 0", c.getSource());
+        }
+        if (options.autoStart() || limited >= 3) {
+          dispatcher.execute("gamerule maxCommandChainLength 2147483647", c.getSource());
+        } else if (limited == 1) {
+          dispatcher.execute("gamerule maxCommandChainLength 0", c.getSource());
+          System.out.println("Execute `/function #load` to start benchmarking " + String.join(", ", options.benchmarks()));
+        }
+        ++limited;
         return 0;
       })
     );
   }
 
+  // Disables the other benchmark data packs and enables the data pack of the group. Since each change reloads data
+  // packs asynchronously, only one is made at a time. Returns whether a reload is pending.
+  private boolean switchDataPacks(
+    final CommandDispatcher<Object> dispatcher,
+    final Options.Iteration options,
+    final Object source
+  ) {
+    if (options.dataPacks().isEmpty() || dataPacksSwitched) {
+      return false;
+    }
+    for (final var dataPack : options.dataPacks()) {
+      if (!dataPack.equals(options.dataPack()) && tryExecute(dispatcher, "datapack disable \"" + dataPack + "\"", source)) {
+        return true;
+      }
+    }
+    if (!options.dataPack().isEmpty() && tryExecute(dispatcher, "datapack enable \"" + options.dataPack() + "\"", source)) {
+      // the group has not been set up in this world since its data pack was enabled
+      setupPending = true;
+      return true;
+    }
+    dataPacksSwitched = true;
+    return false;
+  }
+
+  private static boolean tryExecute(
+    final CommandDispatcher<Object> dispatcher,
+    final String command,
+    final Object source
+  ) {
+    try {
+      dispatcher.execute(command, source);
+      return true;
+    } catch (final CommandSyntaxException e) {
+      return false;
+    }
+  }
+
+  // Durations of the last ticks in nanoseconds, in no particular order, or null if they are not exposed.
+  private static long[] tickTimes() {
+    try {
+      return (long[]) ManagementFactory.getPlatformMBeanServer().getAttribute(SERVER_STATISTICS, "tickTimes");
+    } catch (final InstanceNotFoundException e) {
+      return null;
+    } catch (final JMException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private int close(
+    final CommandDispatcher<Object> dispatcher,
+    final Object source
+  ) throws CommandSyntaxException {
+    try {
+      out.close();
+      socket.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return stop(dispatcher, source);
+  }
+
+  private void registerTeardownTrial(
+    final CommandDispatcher<Object> dispatcher
+  ) {
+    dispatcher.register(literal(TEARDOWN_TRIAL).executes(c -> dispatcher.execute("function #mch:teardown.trial", c.getSource())));
+  }
+
+  // The server is stopped by mch:post rather than by the function, so that tick benchmarks can keep it running.
+  private static int stop(
+    final CommandDispatcher<Object> dispatcher,
+    final Object source
+  ) throws CommandSyntaxException {
+    return dispatcher.execute("stop", source);
+  }
+
+  private void nextBenchmark(
+    final CommandDispatcher<Object> dispatcher,
+    final Options.Iteration options,
+    final Object source
+  ) throws CommandSyntaxException {
+    dispatcher.execute(teardownTrial);
+
+    ++benchmarkIndex;
+    resetIterations(options);
+    run = dispatcher.parse("function " + Params.function(options.benchmarks().get(benchmarkIndex)), source);
+    printIteration(options);
+
+    setParams(dispatcher, options, source);
+    dispatcher.execute(setupTrial);
+    dispatcher.execute(setupIteration);
+  }
+
+  // Sets up the group if its data pack has just been enabled in this fork, which a setup server does otherwise.
+  private int setup(
+    final CommandDispatcher<Object> dispatcher,
+    final Options.Iteration options,
+    final Object source
+  ) throws CommandSyntaxException {
+    if (setupPending) {
+      setupPending = false;
+      dispatcher.execute("function #mch:setup", source);
+    }
+    return setParams(dispatcher, options, source);
+  }
+
+  // Stores the parameters of the benchmark, so that #mch:setup.trial can read them. Commands fail if nothing changes,
+  // which is the case when the objective exists or a value is stored by a previous combination or fork already.
+  private int setParams(
+    final CommandDispatcher<Object> dispatcher,
+    final Options.Iteration options,
+    final Object source
+  ) {
+    final var commands = Params.commands(Params.of(options.benchmarks().get(benchmarkIndex)));
+    if (!commands.isEmpty()) {
+      tryExecute(dispatcher, Params.objectiveCommand(), source);
+    }
+    for (final var command : commands) {
+      tryExecute(dispatcher, command, source);
+    }
+    return 0;
+  }
+
+  // Queues the benchmark function batchSize times ahead of the next mch:loop, so that the clock is read once per batch.
+  private void executeBatch(
+    final CommandDispatcher<Object> dispatcher
+  ) throws CommandSyntaxException {
+    for (var i = 0; i < batchSize; ++i) {
+      dispatcher.execute(run);
+    }
+  }
+
+  private void resetIterations(
+    final Options.Iteration options
+  ) {
+    if (scores == null) {
+      warmupScores = new double[options.warmupIterations()];
+      scores = new double[Math.max(options.measurementIterations(), options.maxMeasurementIterations())];
+      if (options.sampleTime()) {
+        histogram = new Histogram();
+      }
+    }
+    if (histogram != null) {
+      histogram.reset();
+    }
+    // latencies of single operations cannot be told apart within a batch
+    if (options.sampleTime() || options.singleShot()) {
+      batchSize = 1;
+      calibrating = false;
+    } else {
+      batchSize = Math.max(1, options.batchSize());
+      calibrating = options.batchSize() == 0;
+    }
+    measuring = options.warmupIterations() == 0;
+    warmupCount = 0;
+    measurementCount = 0;
+  }
+
+  // Returns true if no more iterations are needed for the current benchmark.
+  private boolean completeIteration(
+    final Options.Iteration options,
+    final double result
+  ) {
+    reportIteration(options, !measuring, result);
+
+    if (!measuring) {
+      warmupScores[warmupCount++] = result;
+      measuring = warmupCount >= options.warmupIterations() || options.targetError() > 0.0 && isSteady(options);
+      return false;
+    }
+
+    scores[measurementCount++] = result;
+    final boolean finished;
+    if (measurementCount < options.measurementIterations()) {
+      finished = false;
+    } else if (options.targetError() <= 0.0 || measurementCount >= scores.length) {
+      finished = true;
+    } else {
+      finished = Statistics.error(scores, 0, measurementCount, options.confidence()) <= options.targetError() * Statistics.mean(scores, 0, measurementCount);
+    }
+
+    if (finished) {
+      try {
+        if (histogram != null) {
+          Message.write(out, new Message.HistogramResult(benchmarkIndex, histogram));
+        }
+        for (final var profiler : options.profilers()) {
+          for (final var message : profiler.stopTrial(benchmarkIndex)) {
+            Message.write(out, message);
+          }
+        }
+        out.flush();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return finished;
+  }
+
+  private void recordBatch(
+    final long time
+  ) {
+    final var batchTime = time - lastTime;
+    if (histogram != null && measuring) {
+      histogram.record(batchTime);
+    }
+    if (calibrating) {
+      if (batchTime < CALIBRATED_BATCH_TIME && batchSize < MAX_BATCH_SIZE) {
+        batchSize *= 2;
+      } else {
+        calibrating = false;
+        System.out.println("Batch size: " + batchSize);
+      }
+    }
+    lastTime = time;
+  }
+
+  // Profilers only observe measurement iterations.
+  private void startProfilers(
+    final Options.Iteration options
+  ) {
+    if (measuring) {
+      for (final var profiler : options.profilers()) {
+        profiler.startIteration();
+      }
+    }
+  }
+
+  private void stopProfilers(
+    final Options.Iteration options,
+    final double result
+  ) {
+    if (measuring) {
+      try {
+        for (final var profiler : options.profilers()) {
+          for (final var message : profiler.stopIteration(options, benchmarkIndex, operationCount, result)) {
+            Message.write(out, message);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private boolean isSteady(
+    final Options.Iteration options
+  ) {
+    if (warmupCount < STEADY_STATE_WINDOW) {
+      return false;
+    }
+    final var from = warmupCount - STEADY_STATE_WINDOW;
+    return Statistics.standardDeviation(warmupScores, from, warmupCount) <= options.targetError() * Statistics.mean(warmupScores, from, warmupCount);
+  }
+
+  private void reportIteration(
+    final Options.Iteration options,
+    final boolean warmup,
+    final double result
+  ) {
+    System.out.println((warmup ? "Warmup" : "Measurement") + " iteration: " + result + " ns/op");
+    try {
+      Message.write(out, new Message.IterationResult(benchmarkIndex, warmup, result));
+      out.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   private void registerConst(
     final CommandDispatcher<Object> dispatcher,
     final String name
@@ -367,6 +885,6 @@ public final class MchCommands implements Commands {
   private void printIteration(
     final Options.Iteration options
   ) {
-    System.out.println(options.mode() + " " + options.benchmark() + " " + (options.fork() + 1) + "/" + options.forks() + " (" + String.format("%.2f", options.progress()) + "%)");
+    System.out.println(options.mode() + " " + options.benchmarks().get(benchmarkIndex) + " " + (options.fork() + 1) + "/" + options.forks() + " (" + String.format("%.2f", options.progress()) + "%)");
   }
 }
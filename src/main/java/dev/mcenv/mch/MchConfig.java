@@ -8,7 +8,9 @@ import joptsimple.OptionParser;
 
 import java.lang.reflect.Type;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static dev.mcenv.mch.Util.parseTimeUnit;
@@ -18,39 +20,90 @@ record MchConfig(
   @Keep boolean autoStart,
   @Keep int warmupIterations,
   @Keep int measurementIterations,
+  @Keep int maxMeasurementIterations,
+  @Keep double targetError,
+  @Keep double confidence,
   @Keep int time,
+  @Keep int batchSize,
+  @Keep int threads,
   @Keep int forks,
+  @Keep int parallelForks,
+  @Keep boolean reuseForks,
+  @Keep boolean switchDataPacks,
+  @Keep boolean restoreWorld,
+  @Keep boolean poolForks,
+  @Keep Collection<BenchmarkMode> benchmarkModes,
+  @Keep boolean subtractBaseline,
+  @Keep Collection<Profiler> profilers,
   @Keep TimeUnit timeUnit,
   @Keep String mc,
   @Keep String output,
+  @Keep String compare,
+  @Keep double regressionThreshold,
+  @Keep String history,
+  @Keep boolean trend,
   @Keep Collection<Format> formats,
   @Keep Collection<String> jvmArgs,
   @Keep Collection<String> mcArgs,
   @Keep Collection<String> parsingBenchmarks,
-  @Keep Collection<String> executeBenchmarks
+  @Keep Collection<String> executeBenchmarks,
+  @Keep Map<String, List<String>> params
 ) {
   public static final String AUTO_START = "auto_start";
   public static final String WARMUP_ITERATIONS = "warmup_iterations";
   public static final String MEASUREMENT_ITERATIONS = "measurement_iterations";
+  public static final String MAX_MEASUREMENT_ITERATIONS = "max_measurement_iterations";
+  public static final String TARGET_ERROR = "target_error";
+  public static final String CONFIDENCE = "confidence";
   public static final String TIME = "time";
+  public static final String BATCH_SIZE = "batch_size";
+  public static final String THREADS = "threads";
   public static final String FORKS = "forks";
+  public static final String PARALLEL_FORKS = "parallel_forks";
+  public static final String REUSE_FORKS = "reuse_forks";
+  public static final String SWITCH_DATA_PACKS = "switch_data_packs";
+  public static final String RESTORE_WORLD = "restore_world";
+  public static final String POOL_FORKS = "pool_forks";
+  public static final String BENCHMARK_MODES = "benchmark_modes";
+  public static final String SUBTRACT_BASELINE = "subtract_baseline";
+  public static final String PROFILERS = "profilers";
   public static final String TIME_UNIT = "time_unit";
   public static final String MC = "mc";
   public static final String OUTPUT = "output";
+  public static final String COMPARE = "compare";
+  public static final String REGRESSION_THRESHOLD = "regression_threshold";
+  public static final String HISTORY = "history";
+  public static final String TREND = "trend";
   public static final String FORMATS = "formats";
   public static final String JVM_ARGS = "jvm_args";
   public static final String MC_ARGS = "mc_args";
   public static final String PARSING_BENCHMARKS = "parsing_benchmarks";
   public static final String EXECUTE_BENCHMARKS = "execute_benchmarks";
+  public static final String PARAMS = "params";
 
   public static final boolean AUTO_START_DEFAULT = true;
   public static final int WARMUP_ITERATIONS_DEFAULT = 5;
   public static final int MEASUREMENT_ITERATIONS_DEFAULT = 5;
+  public static final int MAX_MEASUREMENT_ITERATIONS_DEFAULT = 50;
+  public static final double TARGET_ERROR_DEFAULT = 0.0;
+  public static final double CONFIDENCE_DEFAULT = 0.999;
   public static final int TIME_DEFAULT = 10;
+  public static final int BATCH_SIZE_DEFAULT = 1;
+  public static final int THREADS_DEFAULT = 1;
   public static final int FORKS_DEFAULT = 5;
+  public static final int PARALLEL_FORKS_DEFAULT = 1;
+  public static final boolean REUSE_FORKS_DEFAULT = false;
+  public static final boolean SWITCH_DATA_PACKS_DEFAULT = false;
+  public static final boolean RESTORE_WORLD_DEFAULT = false;
+  public static final boolean POOL_FORKS_DEFAULT = false;
+  public static final Collection<BenchmarkMode> BENCHMARK_MODES_DEFAULT = List.of(BenchmarkMode.AVERAGE_TIME);
+  public static final boolean SUBTRACT_BASELINE_DEFAULT = false;
+  public static final Collection<Profiler> PROFILERS_DEFAULT = List.of();
   public static final TimeUnit TIME_UNIT_DEFAULT = TimeUnit.SECONDS;
   public static final String MC_DEFAULT = "server.jar";
   public static final String OUTPUT_DEFAULT = "mch-results";
+  public static final double REGRESSION_THRESHOLD_DEFAULT = 0.05;
+  public static final boolean TREND_DEFAULT = false;
   public static final Collection<Format> FORMATS_DEFAULT = List.of();
   public static final String MC_ARGS_DEFAULT = "nogui";
 
@@ -59,16 +112,34 @@ record MchConfig(
     private boolean autoStart = AUTO_START_DEFAULT;
     private int warmupIterations = WARMUP_ITERATIONS_DEFAULT;
     private int measurementIterations = MEASUREMENT_ITERATIONS_DEFAULT;
+    private int maxMeasurementIterations = MAX_MEASUREMENT_ITERATIONS_DEFAULT;
+    private double targetError = TARGET_ERROR_DEFAULT;
+    private double confidence = CONFIDENCE_DEFAULT;
     private int time = TIME_DEFAULT;
+    private int batchSize = BATCH_SIZE_DEFAULT;
+    private int threads = THREADS_DEFAULT;
     private int forks = FORKS_DEFAULT;
+    private int parallelForks = PARALLEL_FORKS_DEFAULT;
+    private boolean reuseForks = REUSE_FORKS_DEFAULT;
+    private boolean switchDataPacks = SWITCH_DATA_PACKS_DEFAULT;
+    private boolean restoreWorld = RESTORE_WORLD_DEFAULT;
+    private boolean poolForks = POOL_FORKS_DEFAULT;
+    private Collection<BenchmarkMode> benchmarkModes = BENCHMARK_MODES_DEFAULT;
+    private boolean subtractBaseline = SUBTRACT_BASELINE_DEFAULT;
+    private Collection<Profiler> profilers = PROFILERS_DEFAULT;
     private TimeUnit timeUnit = TIME_UNIT_DEFAULT;
     private String mc = MC_DEFAULT;
     private String output = OUTPUT_DEFAULT;
+    private String compare;
+    private double regressionThreshold = REGRESSION_THRESHOLD_DEFAULT;
+    private String history;
+    private boolean trend = TREND_DEFAULT;
     private Collection<Format> formats = FORMATS_DEFAULT;
     private Collection<String> jvmArgs = List.of();
     private Collection<String> mcArgs = List.of(MC_ARGS_DEFAULT);
     private Collection<String> parsingBenchmarks = List.of();
     private Collection<String> executeBenchmarks = List.of();
+    private Map<String, List<String>> params = Map.of();
 
     public Builder(final String[] args) {
       this.args = args;
@@ -79,16 +150,34 @@ record MchConfig(
       final var autoStartSpec = parser.accepts(AUTO_START).withOptionalArg().ofType(Boolean.class);
       final var warmupIterationsSpec = parser.accepts(WARMUP_ITERATIONS).withOptionalArg().ofType(Integer.class);
       final var measurementIterationsSpec = parser.accepts(MEASUREMENT_ITERATIONS).withOptionalArg().ofType(Integer.class);
+      final var maxMeasurementIterationsSpec = parser.accepts(MAX_MEASUREMENT_ITERATIONS).withOptionalArg().ofType(Integer.class);
+      final var targetErrorSpec = parser.accepts(TARGET_ERROR).withOptionalArg().ofType(Double.class);
+      final var confidenceSpec = parser.accepts(CONFIDENCE).withOptionalArg().ofType(Double.class);
       final var timeSpec = parser.accepts(TIME).withOptionalArg().ofType(Integer.class);
+      final var batchSizeSpec = parser.accepts(BATCH_SIZE).withOptionalArg().ofType(Integer.class);
+      final var threadsSpec = parser.accepts(THREADS).withOptionalArg().ofType(Integer.class);
       final var forksSpec = parser.accepts(FORKS).withOptionalArg().ofType(Integer.class);
+      final var parallelForksSpec = parser.accepts(PARALLEL_FORKS).withOptionalArg().ofType(Integer.class);
+      final var reuseForksSpec = parser.accepts(REUSE_FORKS).withOptionalArg().ofType(Boolean.class);
+      final var switchDataPacksSpec = parser.accepts(SWITCH_DATA_PACKS).withOptionalArg().ofType(Boolean.class);
+      final var restoreWorldSpec = parser.accepts(RESTORE_WORLD).withOptionalArg().ofType(Boolean.class);
+      final var poolForksSpec = parser.accepts(POOL_FORKS).withOptionalArg().ofType(Boolean.class);
+      final var benchmarkModesSpec = parser.accepts(BENCHMARK_MODES).withOptionalArg().ofType(String.class).withValuesSeparatedBy(',');
+      final var subtractBaselineSpec = parser.accepts(SUBTRACT_BASELINE).withOptionalArg().ofType(Boolean.class);
+      final var profilersSpec = parser.accepts(PROFILERS).withOptionalArg().ofType(String.class).withValuesSeparatedBy(',');
       final var timeUnitSpec = parser.accepts(TIME_UNIT).withOptionalArg().ofType(String.class);
       final var mcSpec = parser.accepts(MC).withOptionalArg().ofType(String.class);
       final var outputSpec = parser.accepts(OUTPUT).withOptionalArg().ofType(String.class);
+      final var compareSpec = parser.accepts(COMPARE).withOptionalArg().ofType(String.class);
+      final var regressionThresholdSpec = parser.accepts(REGRESSION_THRESHOLD).withOptionalArg().ofType(Double.class);
+      final var historySpec = parser.accepts(HISTORY).withOptionalArg().ofType(String.class);
+      final var trendSpec = parser.accepts(TREND).withOptionalArg().ofType(Boolean.class);
       final var formatSpec = parser.accepts(FORMATS).withOptionalArg().ofType(String.class).withValuesSeparatedBy(',');
       final var jvmArgsSpec = parser.accepts(JVM_ARGS).withOptionalArg().ofType(String.class).withValuesSeparatedBy(',');
       final var mcArgsSpec = parser.accepts(MC_ARGS).withOptionalArg().ofType(String.class).withValuesSeparatedBy(',');
       final var parsingBenchmarksSpec = parser.accepts(PARSING_BENCHMARKS).withOptionalArg().ofType(String.class).withValuesSeparatedBy(',');
       final var executeBenchmarksSpec = parser.accepts(EXECUTE_BENCHMARKS).withOptionalArg().ofType(String.class).withValuesSeparatedBy(',');
+      final var paramsSpec = parser.accepts(PARAMS).withOptionalArg().ofType(String.class);
       final var options = parser.parse(args);
 
       if (options.has(autoStartSpec)) {
@@ -106,18 +195,75 @@ record MchConfig(
           throw new IllegalStateException("Measurement iterations must be greater than 1");
         }
       }
+      if (options.has(maxMeasurementIterationsSpec)) {
+        maxMeasurementIterations = options.valueOf(maxMeasurementIterationsSpec);
+        if (maxMeasurementIterations < 2) {
+          throw new IllegalStateException("Max measurement iterations must be greater than 1");
+        }
+      }
+      if (options.has(targetErrorSpec)) {
+        targetError = options.valueOf(targetErrorSpec);
+        if (targetError < 0.0) {
+          throw new IllegalStateException("Target error must be greater than or equal to 0");
+        }
+      }
+      if (options.has(confidenceSpec)) {
+        confidence = options.valueOf(confidenceSpec);
+        if (confidence <= 0.0 || confidence >= 1.0) {
+          throw new IllegalStateException("Confidence must be between 0 and 1");
+        }
+      }
       if (options.has(timeSpec)) {
         time = options.valueOf(timeSpec);
         if (time < 1) {
           throw new IllegalStateException("Time must be greater than 0");
         }
       }
+      if (options.has(batchSizeSpec)) {
+        batchSize = options.valueOf(batchSizeSpec);
+        if (batchSize < 0) {
+          throw new IllegalStateException("Batch size must be greater than or equal to 0");
+        }
+      }
+      if (options.has(threadsSpec)) {
+        threads = options.valueOf(threadsSpec);
+        if (threads < 1) {
+          throw new IllegalStateException("Threads must be greater than 0");
+        }
+      }
       if (options.has(forksSpec)) {
         forks = options.valueOf(forksSpec);
         if (forks < 1) {
           throw new IllegalStateException("Forks must be greater than 0");
         }
       }
+      if (options.has(parallelForksSpec)) {
+        parallelForks = options.valueOf(parallelForksSpec);
+        if (parallelForks < 1) {
+          throw new IllegalStateException("Parallel forks must be greater than 0");
+        }
+      }
+      if (options.has(reuseForksSpec)) {
+        reuseForks = options.valueOf(reuseForksSpec);
+      }
+      if (options.has(switchDataPacksSpec)) {
+        switchDataPacks = options.valueOf(switchDataPacksSpec);
+      }
+      if (options.has(restoreWorldSpec)) {
+        restoreWorld = options.valueOf(restoreWorldSpec);
+      }
+      if (options.has(poolForksSpec)) {
+        poolForks = options.valueOf(poolForksSpec);
+      }
+      if (options.has(benchmarkModesSpec)) {
+        benchmarkModes = options.valuesOf(benchmarkModesSpec).stream().map(BenchmarkMode::parse).toList();
+      }
+      if (options.has(subtractBaselineSpec)) {
+        subtractBaseline = options.valueOf(subtractBaselineSpec);
+      }
+      if (options.has(profilersSpec)) {
+        profilers = options.valuesOf(profilersSpec).stream().map(Profiler::parse).toList();
+      }
       if (options.has(timeUnitSpec)) {
         timeUnit = parseTimeUnit(options.valueOf(timeUnitSpec));
       }
@@ -136,27 +282,72 @@ record MchConfig(
       if (options.has(outputSpec)) {
         output = options.valueOf(outputSpec);
       }
+      if (options.has(compareSpec)) {
+        compare = options.valueOf(compareSpec);
+      }
+      if (options.has(regressionThresholdSpec)) {
+        regressionThreshold = options.valueOf(regressionThresholdSpec);
+        if (regressionThreshold < 0.0) {
+          throw new IllegalStateException("Regression threshold must be greater than or equal to 0");
+        }
+      }
+      if (options.has(historySpec)) {
+        history = options.valueOf(historySpec);
+      }
+      if (options.has(trendSpec)) {
+        trend = options.valueOf(trendSpec);
+      }
       if (options.has(parsingBenchmarksSpec)) {
         parsingBenchmarks = options.valuesOf(parsingBenchmarksSpec);
       }
       if (options.has(executeBenchmarksSpec)) {
         executeBenchmarks = options.valuesOf(executeBenchmarksSpec);
       }
+      if (options.has(paramsSpec)) {
+        params = options.valuesOf(paramsSpec).stream().collect(LinkedHashMap<String, List<String>>::new, (map, param) -> Params.parse(param, map), Map::putAll);
+      }
+      // workers are pinned to disjoint processors, which would wrap around and overlap otherwise
+      final var processors = Runtime.getRuntime().availableProcessors();
+      if (parallelForks > processors) {
+        throw new IllegalStateException("Parallel forks must be less than or equal to the number of processors (" + processors + ")");
+      }
+      // pooled servers compile their functions before they know their profilers, which the breakdown has to precede
+      if (poolForks && profilers.stream().anyMatch(profiler -> profiler instanceof Profiler.Breakdown)) {
+        throw new IllegalStateException("Pool forks cannot be used with the breakdown profiler");
+      }
 
       return new MchConfig(
         autoStart,
         warmupIterations,
         measurementIterations,
+        maxMeasurementIterations,
+        targetError,
+        confidence,
         time,
+        batchSize,
+        threads,
         forks,
+        parallelForks,
+        reuseForks,
+        switchDataPacks,
+        restoreWorld,
+        poolForks,
+        benchmarkModes,
+        subtractBaseline,
+        profilers,
         timeUnit,
         mc,
         output,
+        compare,
+        regressionThreshold,
+        history,
+        trend,
         formats,
         jvmArgs,
         mcArgs,
         parsingBenchmarks,
-        executeBenchmarks
+        executeBenchmarks,
+        params
       );
     }
   }
@@ -183,12 +374,51 @@ record MchConfig(
       if (object.get(MEASUREMENT_ITERATIONS) != null) {
         super.measurementIterations = object.get(MEASUREMENT_ITERATIONS).getAsInt();
       }
+      if (object.get(MAX_MEASUREMENT_ITERATIONS) != null) {
+        super.maxMeasurementIterations = object.get(MAX_MEASUREMENT_ITERATIONS).getAsInt();
+      }
+      if (object.get(TARGET_ERROR) != null) {
+        super.targetError = object.get(TARGET_ERROR).getAsDouble();
+      }
+      if (object.get(CONFIDENCE) != null) {
+        super.confidence = object.get(CONFIDENCE).getAsDouble();
+      }
       if (object.get(TIME) != null) {
         super.time = object.get(TIME).getAsInt();
       }
+      if (object.get(BATCH_SIZE) != null) {
+        super.batchSize = object.get(BATCH_SIZE).getAsInt();
+      }
+      if (object.get(THREADS) != null) {
+        super.threads = object.get(THREADS).getAsInt();
+      }
       if (object.get(FORKS) != null) {
         super.forks = object.get(FORKS).getAsInt();
       }
+      if (object.get(PARALLEL_FORKS) != null) {
+        super.parallelForks = object.get(PARALLEL_FORKS).getAsInt();
+      }
+      if (object.get(REUSE_FORKS) != null) {
+        super.reuseForks = object.get(REUSE_FORKS).getAsBoolean();
+      }
+      if (object.get(SWITCH_DATA_PACKS) != null) {
+        super.switchDataPacks = object.get(SWITCH_DATA_PACKS).getAsBoolean();
+      }
+      if (object.get(RESTORE_WORLD) != null) {
+        super.restoreWorld = object.get(RESTORE_WORLD).getAsBoolean();
+      }
+      if (object.get(POOL_FORKS) != null) {
+        super.poolForks = object.get(POOL_FORKS).getAsBoolean();
+      }
+      if (object.get(BENCHMARK_MODES) != null) {
+        super.benchmarkModes = object.get(BENCHMARK_MODES).getAsJsonArray().asList().stream().map(JsonElement::getAsString).map(BenchmarkMode::parse).toList();
+      }
+      if (object.get(SUBTRACT_BASELINE) != null) {
+        super.subtractBaseline = object.get(SUBTRACT_BASELINE).getAsBoolean();
+      }
+      if (object.get(PROFILERS) != null) {
+        super.profilers = object.get(PROFILERS).getAsJsonArray().asList().stream().map(JsonElement::getAsString).map(Profiler::parse).toList();
+      }
       if (object.get(TIME_UNIT) != null) {
         super.timeUnit = parseTimeUnit(object.get(TIME_UNIT).getAsString());
       }
@@ -198,6 +428,18 @@ record MchConfig(
       if (object.get(OUTPUT) != null) {
         super.output = object.get(OUTPUT).getAsString();
       }
+      if (object.get(COMPARE) != null) {
+        super.compare = object.get(COMPARE).getAsString();
+      }
+      if (object.get(REGRESSION_THRESHOLD) != null) {
+        super.regressionThreshold = object.get(REGRESSION_THRESHOLD).getAsDouble();
+      }
+      if (object.get(HISTORY) != null) {
+        super.history = object.get(HISTORY).getAsString();
+      }
+      if (object.get(TREND) != null) {
+        super.trend = object.get(TREND).getAsBoolean();
+      }
       if (object.get(FORMATS) != null) {
         super.formats = object.get(FORMATS).getAsJsonArray().asList().stream().map(JsonElement::getAsString).map(Format::parse).toList();
       }
@@ -213,6 +455,9 @@ record MchConfig(
       if (object.get(EXECUTE_BENCHMARKS) != null) {
         super.executeBenchmarks = object.get(EXECUTE_BENCHMARKS).getAsJsonArray().asList().stream().map(JsonElement::getAsString).toList();
       }
+      if (object.get(PARAMS) != null) {
+        super.params = object.get(PARAMS).getAsJsonObject().entrySet().stream().collect(LinkedHashMap<String, List<String>>::new, (map, entry) -> map.put(entry.getKey(), entry.getValue().getAsJsonArray().asList().stream().map(JsonElement::getAsString).toList()), Map::putAll);
+      }
 
       return build();
     }
@@ -1,13 +1,272 @@
 package dev.mcenv.mch;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
-sealed interface Message extends Serializable permits Message.RunResult, Message.MaxCommandChainLengthExceeded {
-  record RunResult(
-    double[] scores
+sealed interface Message permits Message.IterationResult, Message.MaxCommandChainLengthExceeded, Message.HistogramResult, Message.SecondaryResult, Message.StackSamples, Message.RecordingResult, Message.CommandCosts {
+  int MAGIC = 0x6d636800;
+  short VERSION = 1;
+
+  byte id();
+
+  int size();
+
+  void store(final DataOutput out) throws IOException;
+
+  static void writeHeader(final DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+  }
+
+  static void readHeader(final DataInput in) throws IOException {
+    final var magic = in.readInt();
+    if (magic != MAGIC) {
+      throw new IllegalStateException("Unexpected magic: " + Integer.toHexString(magic));
+    }
+    final var version = in.readShort();
+    if (version != VERSION) {
+      throw new IllegalStateException("Unsupported protocol version: " + version);
+    }
+  }
+
+  static void write(final DataOutput out, final Message message) throws IOException {
+    out.writeInt(1 + message.size());
+    out.writeByte(message.id());
+    message.store(out);
+  }
+
+  static Message read(final DataInput in) throws IOException {
+    final var length = in.readInt();
+    final var id = in.readByte();
+    switch (id) {
+      case 1 -> {
+        return new IterationResult(in.readInt(), in.readBoolean(), in.readDouble());
+      }
+      case 2 -> {
+        return new MaxCommandChainLengthExceeded();
+      }
+      case 3 -> {
+        return new HistogramResult(in.readInt(), Histogram.load(in));
+      }
+      case 4 -> {
+        return new SecondaryResult(in.readInt(), in.readUTF(), in.readUTF(), in.readDouble());
+      }
+      case 5 -> {
+        final var benchmark = in.readInt();
+        final var count = in.readInt();
+        final var stacks = new HashMap<String, Long>(count);
+        for (var i = 0; i < count; ++i) {
+          final var stack = new byte[in.readInt()];
+          in.readFully(stack);
+          stacks.put(new String(stack, StandardCharsets.UTF_8), in.readLong());
+        }
+        return new StackSamples(benchmark, stacks);
+      }
+      case 6 -> {
+        final var benchmark = in.readInt();
+        final var path = new byte[in.readInt()];
+        in.readFully(path);
+        return new RecordingResult(benchmark, new String(path, StandardCharsets.UTF_8));
+      }
+      case 7 -> {
+        final var benchmark = in.readInt();
+        final var operationCount = in.readLong();
+        final var count = in.readInt();
+        final var costs = new HashMap<String, long[]>(count);
+        for (var i = 0; i < count; ++i) {
+          final var command = new byte[in.readInt()];
+          in.readFully(command);
+          costs.put(new String(command, StandardCharsets.UTF_8), new long[]{in.readLong(), in.readLong()});
+        }
+        return new CommandCosts(benchmark, operationCount, costs);
+      }
+      default -> {
+        // skip messages unknown to this version, which skipBytes may only do in part
+        in.readFully(new byte[length - 1]);
+        return null;
+      }
+    }
+  }
+
+  record IterationResult(
+    int benchmark,
+    boolean warmup,
+    double score
   ) implements Message {
+    @Override
+    public byte id() {
+      return 1;
+    }
+
+    @Override
+    public int size() {
+      return Integer.BYTES + 1 + Double.BYTES;
+    }
+
+    @Override
+    public void store(final DataOutput out) throws IOException {
+      out.writeInt(benchmark);
+      out.writeBoolean(warmup);
+      out.writeDouble(score);
+    }
   }
 
   record MaxCommandChainLengthExceeded() implements Message {
+    @Override
+    public byte id() {
+      return 2;
+    }
+
+    @Override
+    public int size() {
+      return 0;
+    }
+
+    @Override
+    public void store(final DataOutput out) {
+    }
+  }
+
+  record HistogramResult(
+    int benchmark,
+    Histogram histogram
+  ) implements Message {
+    @Override
+    public byte id() {
+      return 3;
+    }
+
+    @Override
+    public int size() {
+      return Integer.BYTES + histogram.size();
+    }
+
+    @Override
+    public void store(final DataOutput out) throws IOException {
+      out.writeInt(benchmark);
+      histogram.store(out);
+    }
+  }
+
+  record SecondaryResult(
+    int benchmark,
+    String name,
+    String unit,
+    double value
+  ) implements Message {
+    @Override
+    public byte id() {
+      return 4;
+    }
+
+    @Override
+    public int size() {
+      // names and units are ASCII, whose modified UTF-8 encoding takes a byte per character
+      return Integer.BYTES + Short.BYTES + name.length() + Short.BYTES + unit.length() + Double.BYTES;
+    }
+
+    @Override
+    public void store(final DataOutput out) throws IOException {
+      out.writeInt(benchmark);
+      out.writeUTF(name);
+      out.writeUTF(unit);
+      out.writeDouble(value);
+    }
+  }
+
+  // Stacks may be longer than writeUTF allows, so they are written as length-prefixed UTF-8.
+  record StackSamples(
+    int benchmark,
+    Map<String, Long> stacks
+  ) implements Message {
+    @Override
+    public byte id() {
+      return 5;
+    }
+
+    @Override
+    public int size() {
+      var size = Integer.BYTES + Integer.BYTES;
+      for (final var stack : stacks.keySet()) {
+        size += Integer.BYTES + stack.getBytes(StandardCharsets.UTF_8).length + Long.BYTES;
+      }
+      return size;
+    }
+
+    @Override
+    public void store(final DataOutput out) throws IOException {
+      out.writeInt(benchmark);
+      out.writeInt(stacks.size());
+      for (final var entry : stacks.entrySet()) {
+        final var stack = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(stack.length);
+        out.write(stack);
+        out.writeLong(entry.getValue());
+      }
+    }
+  }
+
+  // The path of a JFR recording dumped by the fork, which the host moves next to the results. Paths may contain any
+  // character, so they are written as length-prefixed UTF-8 rather than modified UTF-8.
+  record RecordingResult(
+    int benchmark,
+    String path
+  ) implements Message {
+    @Override
+    public byte id() {
+      return 6;
+    }
+
+    @Override
+    public int size() {
+      return Integer.BYTES + Integer.BYTES + path.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Override
+    public void store(final DataOutput out) throws IOException {
+      final var path = this.path.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(benchmark);
+      out.writeInt(path.length);
+      out.write(path);
+    }
+  }
+
+  // Self times in nanoseconds and execution counts of commands by their input, over operationCount operations.
+  record CommandCosts(
+    int benchmark,
+    long operationCount,
+    Map<String, long[]> costs
+  ) implements Message {
+    @Override
+    public byte id() {
+      return 7;
+    }
+
+    @Override
+    public int size() {
+      var size = Integer.BYTES + Long.BYTES + Integer.BYTES;
+      for (final var command : costs.keySet()) {
+        size += Integer.BYTES + command.getBytes(StandardCharsets.UTF_8).length + Long.BYTES + Long.BYTES;
+      }
+      return size;
+    }
+
+    @Override
+    public void store(final DataOutput out) throws IOException {
+      out.writeInt(benchmark);
+      out.writeLong(operationCount);
+      out.writeInt(costs.size());
+      for (final var entry : costs.entrySet()) {
+        final var command = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(command.length);
+        out.write(command);
+        out.writeLong(entry.getValue()[0]);
+        out.writeLong(entry.getValue()[1]);
+      }
+    }
   }
 }
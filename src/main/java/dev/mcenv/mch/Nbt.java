@@ -1,10 +1,15 @@
 package dev.mcenv.mch;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.function.UnaryOperator;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -50,7 +55,8 @@ sealed interface Nbt {
         return new List(elements);
       }
       case 10 -> {
-        final var elements = new HashMap<java.lang.String, Nbt>();
+        // the order of the elements is kept, so that rewriting an unchanged compound reproduces it byte for byte
+        final var elements = new LinkedHashMap<java.lang.String, Nbt>();
         byte type;
         while ((type = in.readByte()) != 0) {
           final var name = in.readUTF();
@@ -59,25 +65,26 @@ sealed interface Nbt {
         return new Compound(elements);
       }
       case 11 -> {
-        final var size = in.readInt();
-        final var values = new int[size];
-        for (var i = 0; i < size; ++i) {
-          values[i] = in.readInt();
-        }
+        final var values = new int[in.readInt()];
+        readBuffer(in, values.length * Integer.BYTES).asIntBuffer().get(values);
         return new IntArray(values);
       }
       case 12 -> {
-        final var size = in.readInt();
-        final var values = new long[size];
-        for (var i = 0; i < size; ++i) {
-          values[i] = in.readLong();
-        }
+        final var values = new long[in.readInt()];
+        readBuffer(in, values.length * java.lang.Long.BYTES).asLongBuffer().get(values);
         return new LongArray(values);
       }
       default -> throw new IllegalStateException("Unexpected id: " + id);
     }
   }
 
+  // Reads the elements of an array at once, which are then converted through a view in big-endian order.
+  private static ByteBuffer readBuffer(final DataInput in, final int size) throws IOException {
+    final var bytes = new byte[size];
+    in.readFully(bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+
   static void write(final Nbt nbt, final Path path) throws IOException {
     try (final var out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))))) {
       out.writeByte(nbt.id());
@@ -94,8 +101,163 @@ sealed interface Nbt {
     }
   }
 
+  // Replaces the tags at the paths of a gzipped NBT file. The file is streamed through, so that only the compounds on
+  // the paths are decoded and all other tags are copied byte for byte.
+  static void patch(final Path path, final Patch<?>... patches) throws IOException {
+    final var patched = new HashSet<TagPath<?>>();
+    final var temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      try (
+        final var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))));
+        final var out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary))))
+      ) {
+        final var type = in.readByte();
+        out.writeByte(type);
+        out.writeUTF(in.readUTF());
+        if (type != 10) {
+          throw new IllegalStateException("Unexpected id: " + type);
+        }
+        patchCompound(in, out, Arrays.asList(patches), 0, patched);
+      }
+      for (final var patch : patches) {
+        if (!patched.contains(patch.path())) {
+          throw new IllegalStateException("Missing tag: " + patch.path());
+        }
+      }
+      Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  private static void patchCompound(
+    final DataInputStream in,
+    final DataOutputStream out,
+    final java.util.List<Patch<?>> patches,
+    final int depth,
+    final java.util.Set<TagPath<?>> patched
+  ) throws IOException {
+    byte type;
+    while ((type = in.readByte()) != 0) {
+      final var name = in.readUTF();
+      final var nested = new ArrayList<Patch<?>>();
+      Patch<?> target = null;
+      for (final var patch : patches) {
+        final var names = patch.path().names();
+        if (names.get(depth).equals(name)) {
+          if (names.size() == depth + 1) {
+            target = patch;
+          } else if (type == 10) {
+            nested.add(patch);
+          }
+        }
+      }
+      if (target != null) {
+        final var nbt = target.apply(load(in, type));
+        out.writeByte(nbt.id());
+        out.writeUTF(name);
+        nbt.store(out);
+        patched.add(target.path());
+      } else {
+        out.writeByte(type);
+        out.writeUTF(name);
+        if (nested.isEmpty()) {
+          copy(in, out, type);
+        } else {
+          patchCompound(in, out, nested, depth + 1, patched);
+        }
+      }
+    }
+    out.writeByte(0);
+  }
+
+  // Copies a tag without decoding it.
+  private static void copy(final DataInputStream in, final DataOutputStream out, final byte id) throws IOException {
+    switch (id) {
+      case 1 -> copyBytes(in, out, 1);
+      case 2 -> copyBytes(in, out, 2);
+      case 3, 5 -> copyBytes(in, out, 4);
+      case 4, 6 -> copyBytes(in, out, 8);
+      case 7 -> copyArray(in, out, 1);
+      case 8 -> {
+        final var length = in.readUnsignedShort();
+        out.writeShort(length);
+        copyBytes(in, out, length);
+      }
+      case 9 -> {
+        final var type = in.readByte();
+        final var size = in.readInt();
+        out.writeByte(type);
+        out.writeInt(size);
+        for (var i = 0; i < size; ++i) {
+          copy(in, out, type);
+        }
+      }
+      case 10 -> {
+        byte type;
+        while ((type = in.readByte()) != 0) {
+          out.writeByte(type);
+          copy(in, out, (byte) 8);
+          copy(in, out, type);
+        }
+        out.writeByte(0);
+      }
+      case 11 -> copyArray(in, out, 4);
+      case 12 -> copyArray(in, out, 8);
+      default -> throw new IllegalStateException("Unexpected id: " + id);
+    }
+  }
+
+  private static void copyArray(final DataInputStream in, final DataOutputStream out, final int elementSize) throws IOException {
+    final var size = in.readInt();
+    out.writeInt(size);
+    copyBytes(in, out, (long) size * elementSize);
+  }
+
+  private static void copyBytes(final DataInputStream in, final DataOutputStream out, final long length) throws IOException {
+    final var buffer = new byte[(int) Math.min(length, 8192)];
+    var remaining = length;
+    while (remaining > 0) {
+      final var count = (int) Math.min(remaining, buffer.length);
+      in.readFully(buffer, 0, count);
+      out.write(buffer, 0, count);
+      remaining -= count;
+    }
+  }
+
   void store(final DataOutput out) throws IOException;
 
+  // A path to a tag through nested compounds, such as Data.DataPacks.Enabled, which is typed by the tag it points to.
+  record TagPath<T extends Nbt>(
+    Class<T> type,
+    java.util.List<java.lang.String> names
+  ) {
+    public static <T extends Nbt> TagPath<T> of(final Class<T> type, final java.lang.String path) {
+      return new TagPath<>(type, java.util.List.of(path.split("\\.")));
+    }
+
+    public T cast(final Nbt nbt) {
+      if (!type.isInstance(nbt)) {
+        throw new IllegalStateException("Unexpected tag at " + this + ": " + nbt.id());
+      }
+      return type.cast(nbt);
+    }
+
+    @Override
+    public java.lang.String toString() {
+      return java.lang.String.join(".", names);
+    }
+  }
+
+  record Patch<T extends Nbt>(
+    TagPath<T> path,
+    UnaryOperator<T> function
+  ) {
+    private Nbt apply(final Nbt nbt) {
+      return function.apply(path.cast(nbt));
+    }
+  }
+
   record Byte(
     byte value
   ) implements Nbt {
@@ -256,10 +418,10 @@ sealed interface Nbt {
 
     @Override
     public void store(final DataOutput out) throws IOException {
+      final var buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+      buffer.asIntBuffer().put(values);
       out.writeInt(values.length);
-      for (final var value : values) {
-        out.writeInt(value);
-      }
+      out.write(buffer.array());
     }
   }
 
@@ -273,10 +435,10 @@ sealed interface Nbt {
 
     @Override
     public void store(final DataOutput out) throws IOException {
+      final var buffer = ByteBuffer.allocate(values.length * java.lang.Long.BYTES);
+      buffer.asLongBuffer().put(values);
       out.writeInt(values.length);
-      for (final var value : values) {
-        out.writeLong(value);
-      }
+      out.write(buffer.array());
     }
   }
 }
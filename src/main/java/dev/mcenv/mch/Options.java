@@ -1,6 +1,10 @@
 package dev.mcenv.mch;
 
-sealed interface Options permits Options.Setup, Options.Iteration {
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+sealed interface Options permits Options.Setup, Options.Iteration, Options.Pool {
   static Options parse(
     final String string
   ) {
@@ -10,18 +14,36 @@ sealed interface Options permits Options.Setup, Options.Iteration {
       case "setup" -> new Setup(
         Boolean.parseBoolean(args[1])
       );
-      case "iteration" -> new Iteration(
-        Boolean.parseBoolean(args[1]),
-        Boolean.parseBoolean(args[2]),
-        Integer.parseInt(args[3]),
-        Integer.parseInt(args[4]),
-        Integer.parseInt(args[5]),
-        Integer.parseInt(args[6]),
-        Integer.parseInt(args[7]),
-        Integer.parseInt(args[8]),
-        Float.parseFloat(args[9]),
-        Iteration.Mode.parse(args[10]),
-        args[11]
+      case "iteration" -> {
+        final var mode = Iteration.Mode.parse(args[20]);
+        final var benchmarks = Arrays.copyOfRange(args, 21, args.length);
+        yield new Iteration(
+          Boolean.parseBoolean(args[1]),
+          Boolean.parseBoolean(args[2]),
+          Integer.parseInt(args[3]),
+          Integer.parseInt(args[4]),
+          Integer.parseInt(args[5]),
+          Double.parseDouble(args[6]),
+          Double.parseDouble(args[7]),
+          Integer.parseInt(args[8]),
+          Integer.parseInt(args[9]),
+          Integer.parseInt(args[10]),
+          Boolean.parseBoolean(args[11]),
+          Boolean.parseBoolean(args[12]),
+          Arrays.stream(args[13].split("\\+")).filter(profiler -> !profiler.isEmpty()).map(Profiler::parse).toList(),
+          Integer.parseInt(args[14]),
+          Integer.parseInt(args[15]),
+          Integer.parseInt(args[16]),
+          Float.parseFloat(args[17]),
+          args[18],
+          Arrays.stream(args[19].split("\\|")).filter(dataPack -> !dataPack.isEmpty()).toList(),
+          mode,
+          // commands may contain commas, whereas function names may not
+          mode == Iteration.Mode.FUNCTION || mode == Iteration.Mode.TICK ? List.of(benchmarks) : List.of(String.join(",", benchmarks))
+        );
+      }
+      case "pool" -> new Pool(
+        Integer.parseInt(args[1])
       );
       default -> throw new IllegalArgumentException("Unknown tag: " + tag);
     };
@@ -41,36 +63,57 @@ sealed interface Options permits Options.Setup, Options.Iteration {
     boolean lastIterationInGroup,
     int warmupIterations,
     int measurementIterations,
+    int maxMeasurementIterations,
+    double targetError,
+    double confidence,
     int time,
+    int batchSize,
+    int threads,
+    boolean sampleTime,
+    boolean singleShot,
+    List<Profiler> profilers,
     int forks,
     int fork,
     int port,
     float progress,
+    String dataPack,
+    List<String> dataPacks,
     Mode mode,
-    String benchmark
+    List<String> benchmarks
   ) implements Options {
     @Override
     public String toString() {
       return String.format(
-        "iteration,%b,%b,%d,%d,%d,%d,%d,%d,%f,%s,%s",
+        "iteration,%b,%b,%d,%d,%d,%s,%s,%d,%d,%d,%b,%b,%s,%d,%d,%d,%f,%s,%s,%s,%s",
         autoStart,
         lastIterationInGroup,
         warmupIterations,
         measurementIterations,
+        maxMeasurementIterations,
+        targetError,
+        confidence,
         time,
+        batchSize,
+        threads,
+        sampleTime,
+        singleShot,
+        profilers.stream().map(Profiler::toString).collect(Collectors.joining("+")),
         forks,
         fork,
         port,
         progress,
+        dataPack,
+        String.join("|", dataPacks),
         mode,
-        benchmark
+        String.join(",", benchmarks)
       );
     }
 
     public enum Mode {
       PARSING("parsing"),
       EXECUTE("execute"),
-      FUNCTION("function");
+      FUNCTION("function"),
+      TICK("tick");
 
       private final String name;
 
@@ -87,6 +130,7 @@ sealed interface Options permits Options.Setup, Options.Iteration {
           case "parsing" -> PARSING;
           case "execute" -> EXECUTE;
           case "function" -> FUNCTION;
+          case "tick" -> TICK;
           default -> throw new IllegalArgumentException("Unknown mode: " + string);
         };
       }
@@ -97,4 +141,14 @@ sealed interface Options permits Options.Setup, Options.Iteration {
       }
     }
   }
+
+  // A pooled server is booted before its fork is known, and receives the iteration options through the port.
+  record Pool(
+    int port
+  ) implements Options {
+    @Override
+    public String toString() {
+      return String.format("pool,%d", port);
+    }
+  }
 }
@@ -0,0 +1,141 @@
+package dev.mcenv.mch;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+// Parameters of benchmarks. Each combination of parameter values is a benchmark of its own. Functions carry their
+// parameters in their names as function?name=value&name=value, so that they can be passed to forks, whereas commands
+// have their parameters substituted for ${name} placeholders.
+final class Params {
+  private static final Pattern PARAM = Pattern.compile("^([A-Za-z0-9_]+)=([^&=]+(?:,[^&=]+)*)$");
+  private static final String QUERY_SEPARATOR = "?";
+  private static final String PARAM_SEPARATOR = "&";
+  private static final String VALUE_SEPARATOR = "=";
+  private static final String OBJECTIVE = "mch.params";
+
+  // Parses name=v1,v2,v3 into the given parameter space.
+  public static void parse(
+    final String param,
+    final Map<String, List<String>> params
+  ) {
+    final var matcher = PARAM.matcher(param.trim());
+    if (!matcher.matches()) {
+      throw new IllegalStateException("Invalid parameter: " + param);
+    }
+    params.put(matcher.group(1), List.of(matcher.group(2).split(",")));
+  }
+
+  // All combinations of the parameter values, varying the last parameter fastest.
+  public static List<Map<String, String>> combinations(
+    final Map<String, List<String>> params
+  ) {
+    var result = List.<Map<String, String>>of(new LinkedHashMap<>());
+    for (final var entry : params.entrySet()) {
+      final var combinations = new ArrayList<Map<String, String>>();
+      for (final var combination : result) {
+        for (final var value : entry.getValue()) {
+          final var next = new LinkedHashMap<>(combination);
+          next.put(entry.getKey(), value);
+          combinations.add(next);
+        }
+      }
+      result = combinations;
+    }
+    return result;
+  }
+
+  public static String append(
+    final String function,
+    final Map<String, String> params
+  ) {
+    if (params.isEmpty()) {
+      return function;
+    }
+    final var query = new StringJoiner(PARAM_SEPARATOR);
+    params.forEach((name, value) -> query.add(name + VALUE_SEPARATOR + value));
+    return function + QUERY_SEPARATOR + query;
+  }
+
+  public static String function(
+    final String benchmark
+  ) {
+    final var index = benchmark.indexOf(QUERY_SEPARATOR);
+    return index == -1 ? benchmark : benchmark.substring(0, index);
+  }
+
+  public static Map<String, String> of(
+    final String benchmark
+  ) {
+    final var result = new LinkedHashMap<String, String>();
+    final var index = benchmark.indexOf(QUERY_SEPARATOR);
+    if (index != -1) {
+      for (final var param : benchmark.substring(index + 1).split(PARAM_SEPARATOR)) {
+        final var separator = param.indexOf(VALUE_SEPARATOR);
+        result.put(param.substring(0, separator), param.substring(separator + 1));
+      }
+    }
+    return result;
+  }
+
+  // The benchmark followed by its parameters, which tells apart the benchmarks expanded from the same one.
+  public static String name(
+    final String benchmark,
+    final Map<String, String> params
+  ) {
+    if (params == null || params.isEmpty()) {
+      return benchmark;
+    }
+    final var joiner = new StringJoiner(", ", " {", "}");
+    params.forEach((name, value) -> joiner.add(name + VALUE_SEPARATOR + value));
+    return benchmark + joiner;
+  }
+
+  // Only the parameters that a command refers to are expanded, so that it is not run repeatedly with the same text.
+  public static Map<String, List<String>> referenced(
+    final String command,
+    final Map<String, List<String>> params
+  ) {
+    final var result = new LinkedHashMap<String, List<String>>();
+    params.forEach((name, values) -> {
+      if (command.contains(placeholder(name))) {
+        result.put(name, values);
+      }
+    });
+    return result;
+  }
+
+  public static String substitute(
+    final String command,
+    final Map<String, String> params
+  ) {
+    var result = command;
+    for (final var entry : params.entrySet()) {
+      result = result.replace(placeholder(entry.getKey()), entry.getValue());
+    }
+    return result;
+  }
+
+  // Commands that store the parameters in storage mch:params, and integers also as scores of #<name> for mch.params.
+  public static List<String> commands(
+    final Map<String, String> params
+  ) {
+    final var result = new ArrayList<String>();
+    params.forEach((name, value) -> {
+      result.add("data modify storage mch:params " + name + " set value " + value);
+      if (Util.parseIntOrNull(value) != null) {
+        result.add("scoreboard players set #" + name + " " + OBJECTIVE + " " + value);
+      }
+    });
+    return result;
+  }
+
+  public static String objectiveCommand() {
+    return "scoreboard objectives add " + OBJECTIVE + " dummy";
+  }
+
+  private static String placeholder(
+    final String name
+  ) {
+    return "${" + name + "}";
+  }
+}
@@ -0,0 +1,102 @@
+package dev.mcenv.mch;
+
+import com.mojang.brigadier.CommandDispatcher;
+
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+
+// Parses a command on helper threads alongside the server thread during parsing iterations. The threads start and stop
+// together at barriers, and each thread counts its operations locally, so that they only share the flag that ends an
+// iteration.
+final class ParsingThreads {
+  private static final List<Long> THREAD_IDS = new CopyOnWriteArrayList<>();
+
+  private final CommandDispatcher<Object> dispatcher;
+  private final String command;
+  private final Object source;
+  private final CyclicBarrier startBarrier;
+  private final CyclicBarrier stopBarrier;
+  private final long[] operationCounts;
+  private volatile boolean running;
+  private int batchSize;
+
+  public ParsingThreads(
+    final int count,
+    final CommandDispatcher<Object> dispatcher,
+    final String command,
+    final Object source
+  ) {
+    this.dispatcher = dispatcher;
+    this.command = command;
+    this.source = source;
+    // the server thread is a party as well
+    startBarrier = new CyclicBarrier(count + 1);
+    stopBarrier = new CyclicBarrier(count + 1);
+    operationCounts = new long[count];
+    for (var i = 0; i < count; ++i) {
+      final var index = i;
+      final var thread = new Thread(() -> parse(index), "mch-parsing-" + (index + 1));
+      thread.setDaemon(true);
+      thread.start();
+      THREAD_IDS.add(thread.getId());
+    }
+  }
+
+  // Releases the helper threads into an iteration.
+  public void start(
+    final int batchSize
+  ) {
+    this.batchSize = batchSize;
+    running = true;
+    await(startBarrier);
+  }
+
+  // Ends the iteration and returns the number of operations of the helper threads.
+  public long stop() {
+    running = false;
+    await(stopBarrier);
+    var result = 0L;
+    for (final var operationCount : operationCounts) {
+      result += operationCount;
+    }
+    return result;
+  }
+
+  // Helper threads of this fork, which run until the fork exits.
+  public static List<Long> threadIds() {
+    return THREAD_IDS;
+  }
+
+  private void parse(
+    final int index
+  ) {
+    try {
+      while (true) {
+        startBarrier.await();
+        final var batchSize = this.batchSize;
+        var operationCount = 0L;
+        while (running) {
+          for (var i = 0; i < batchSize; ++i) {
+            dispatcher.parse(command, source);
+          }
+          operationCount += batchSize;
+        }
+        operationCounts[index] = operationCount;
+        stopBarrier.await();
+      }
+    } catch (final InterruptedException | BrokenBarrierException ignored) {
+    }
+  }
+
+  private static void await(
+    final CyclicBarrier barrier
+  ) {
+    try {
+      barrier.await();
+    } catch (final InterruptedException | BrokenBarrierException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
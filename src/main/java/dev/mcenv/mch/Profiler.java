@@ -0,0 +1,372 @@
+package dev.mcenv.mch;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.tree.CommandNode;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.*;
+
+// Collects secondary data of measurement iterations inside forks. Profilers are created per fork, so they may keep
+// state, and are started and stopped on the server thread.
+sealed interface Profiler permits Profiler.Gc, Profiler.Stack, Profiler.Jfr, Profiler.Breakdown {
+  static Profiler parse(final String profiler) {
+    return switch (profiler) {
+      case "gc" -> new Gc();
+      case "stack" -> new Stack();
+      case "jfr" -> new Jfr();
+      case "breakdown" -> new Breakdown();
+      default -> throw new IllegalStateException("Unexpected profiler: " + profiler);
+    };
+  }
+
+  void startIteration();
+
+  List<Message> stopIteration(final Options.Iteration options, final int benchmark, final long operationCount, final double score);
+
+  // Called after the last measurement iteration of a benchmark in this fork.
+  default List<Message> stopTrial(final int benchmark) {
+    return List.of();
+  }
+
+  final class Gc implements Profiler {
+    private long allocatedBytes;
+    private long collectionCount;
+    private long collectionTime;
+
+    @Override
+    public void startIteration() {
+      allocatedBytes = allocatedBytes();
+      collectionCount = 0L;
+      collectionTime = 0L;
+      for (final var collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        collectionCount += Math.max(0L, collector.getCollectionCount());
+        collectionTime += Math.max(0L, collector.getCollectionTime());
+      }
+    }
+
+    @Override
+    public List<Message> stopIteration(
+      final Options.Iteration options,
+      final int benchmark,
+      final long operationCount,
+      final double score
+    ) {
+      final var allocatedBytes = allocatedBytes() - this.allocatedBytes;
+      var collectionCount = -this.collectionCount;
+      var collectionTime = -this.collectionTime;
+      for (final var collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        collectionCount += Math.max(0L, collector.getCollectionCount());
+        collectionTime += Math.max(0L, collector.getCollectionTime());
+      }
+      return List.of(
+        new Message.SecondaryResult(benchmark, "gc.alloc.rate.norm", "B/op", (double) allocatedBytes / operationCount),
+        new Message.SecondaryResult(benchmark, "gc.count", "counts", collectionCount),
+        new Message.SecondaryResult(benchmark, "gc.time.norm", "ms/op", (double) collectionTime / operationCount)
+      );
+    }
+
+    // Bytes allocated by the server thread, which runs the benchmarks, and by the helper threads of parsing iterations,
+    // whose operations are counted as well.
+    private static long allocatedBytes() {
+      final var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      var result = threadMXBean.getCurrentThreadAllocatedBytes();
+      for (final var id : ParsingThreads.threadIds()) {
+        result += Math.max(0L, threadMXBean.getThreadAllocatedBytes(id));
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "gc";
+    }
+  }
+
+  // Samples stack traces of the server thread from a daemon thread. Identical stacks share one counter, so the table
+  // only grows with the number of distinct stacks and samples are folded into strings once per iteration.
+  final class Stack implements Profiler {
+    private static final long INTERVAL_MILLIS = 10L;
+
+    private final Map<List<StackTraceElement>, long[]> samples = new HashMap<>(1024);
+    private volatile Thread target;
+    private Thread sampler;
+
+    @Override
+    public void startIteration() {
+      target = Thread.currentThread();
+      if (sampler == null) {
+        sampler = new Thread(this::sample, "mch-stack-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+      }
+    }
+
+    @Override
+    public List<Message> stopIteration(
+      final Options.Iteration options,
+      final int benchmark,
+      final long operationCount,
+      final double score
+    ) {
+      target = null;
+      final var stacks = new HashMap<String, Long>();
+      synchronized (samples) {
+        for (final var entry : samples.entrySet()) {
+          stacks.merge(fold(entry.getKey()), entry.getValue()[0], Long::sum);
+        }
+        samples.clear();
+      }
+      return List.of(new Message.StackSamples(benchmark, stacks));
+    }
+
+    private void sample() {
+      try {
+        while (true) {
+          Thread.sleep(INTERVAL_MILLIS);
+          final var target = this.target;
+          if (target != null) {
+            final var stack = target.getStackTrace();
+            if (stack.length > 0) {
+              synchronized (samples) {
+                ++samples.computeIfAbsent(Arrays.asList(stack), key -> new long[1])[0];
+              }
+            }
+          }
+        }
+      } catch (final InterruptedException ignored) {
+      }
+    }
+
+    // Frames from the root to the leaf, separated by semicolons, as in the folded format of flame graph tools.
+    private static String fold(
+      final List<StackTraceElement> stack
+    ) {
+      final var frames = new StringJoiner(";");
+      for (var i = stack.size() - 1; i >= 0; --i) {
+        final var frame = stack.get(i);
+        frames.add(frame.getClassName() + "." + frame.getMethodName());
+      }
+      return frames.toString();
+    }
+
+    @Override
+    public String toString() {
+      return "stack";
+    }
+  }
+
+  // Records JFR events of the measurement iterations of each benchmark, along with an event per iteration, so that
+  // slow iterations can be correlated with GC, JIT and safepoint events. The recording is dumped to a temporary file
+  // after the last measurement iteration, which the host moves next to the results.
+  final class Jfr implements Profiler {
+    private Recording recording;
+    private IterationEvent event;
+    private int iteration;
+
+    @Override
+    public void startIteration() {
+      if (recording == null) {
+        try {
+          recording = new Recording(Configuration.getConfiguration("profile"));
+        } catch (final IOException | ParseException e) {
+          throw new RuntimeException(e);
+        }
+        recording.enable(IterationEvent.class);
+        recording.start();
+        iteration = 0;
+      }
+      event = new IterationEvent();
+      event.begin();
+    }
+
+    @Override
+    public List<Message> stopIteration(
+      final Options.Iteration options,
+      final int benchmark,
+      final long operationCount,
+      final double score
+    ) {
+      event.end();
+      event.benchmark = options.benchmarks().get(benchmark);
+      event.fork = options.fork() + 1;
+      event.iteration = ++iteration;
+      event.operationCount = operationCount;
+      event.score = score;
+      event.commit();
+      event = null;
+      return List.of();
+    }
+
+    @Override
+    public List<Message> stopTrial(
+      final int benchmark
+    ) {
+      if (recording == null) {
+        return List.of();
+      }
+      try (final var recording = this.recording) {
+        this.recording = null;
+        recording.stop();
+        final var path = Files.createTempFile("mch-", ".jfr");
+        recording.dump(path);
+        return List.of(new Message.RecordingResult(benchmark, path.toString()));
+      } catch (final IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "jfr";
+    }
+  }
+
+  // Times every command by its input, which is the line of the function that contains it. Commands called by a
+  // command, such as those of a function called by a function command, are subtracted from the time of the caller,
+  // so that each line is charged its own cost. Timing adds overhead to every command, so the costs are meant to be
+  // compared with each other rather than with the score.
+  final class Breakdown implements Profiler {
+    private static final String MCH_NAMESPACE = "mch:";
+
+    private final Map<String, long[]> costs = new HashMap<>();
+    private long[] childTimes = new long[16];
+    private int depth;
+    private boolean active;
+    private long operationCount;
+
+    // Functions capture the commands of the nodes when they are loaded, so this has to be called before that.
+    public <S> void instrument(
+      final CommandDispatcher<S> dispatcher
+    ) {
+      final Field command;
+      try {
+        command = CommandNode.class.getDeclaredField("command");
+        command.setAccessible(true);
+      } catch (final NoSuchFieldException e) {
+        throw new RuntimeException(e);
+      }
+      instrument(command, dispatcher.getRoot(), Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private <S> void instrument(
+      final Field command,
+      final CommandNode<S> node,
+      final Set<CommandNode<S>> visited
+    ) {
+      if (!visited.add(node)) {
+        return;
+      }
+      if (node.getCommand() != null) {
+        try {
+          command.set(node, wrap(node.getCommand()));
+        } catch (final IllegalAccessException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      for (final var child : node.getChildren()) {
+        if (!child.getName().startsWith(MCH_NAMESPACE)) {
+          instrument(command, child, visited);
+        }
+      }
+    }
+
+    private <S> Command<S> wrap(
+      final Command<S> command
+    ) {
+      return context -> {
+        if (!active) {
+          return command.run(context);
+        }
+        if (depth == childTimes.length) {
+          childTimes = Arrays.copyOf(childTimes, 2 * depth);
+        }
+        childTimes[depth++] = 0L;
+        final var startTime = System.nanoTime();
+        try {
+          return command.run(context);
+        } finally {
+          final var time = System.nanoTime() - startTime;
+          final var selfTime = time - childTimes[--depth];
+          if (depth > 0) {
+            childTimes[depth - 1] += time;
+          }
+          final var cost = costs.computeIfAbsent(context.getInput(), key -> new long[2]);
+          cost[0] += selfTime;
+          ++cost[1];
+        }
+      };
+    }
+
+    @Override
+    public void startIteration() {
+      active = true;
+    }
+
+    @Override
+    public List<Message> stopIteration(
+      final Options.Iteration options,
+      final int benchmark,
+      final long operationCount,
+      final double score
+    ) {
+      active = false;
+      this.operationCount += operationCount;
+      return List.of();
+    }
+
+    @Override
+    public List<Message> stopTrial(
+      final int benchmark
+    ) {
+      final var message = new Message.CommandCosts(benchmark, operationCount, Map.copyOf(costs));
+      costs.clear();
+      operationCount = 0L;
+      return List.of(message);
+    }
+
+    @Override
+    public String toString() {
+      return "breakdown";
+    }
+  }
+
+  @Keep
+  @Name("dev.mcenv.mch.Iteration")
+  @Label("Iteration")
+  @Category("mch")
+  @Description("A measurement iteration of a benchmark")
+  final class IterationEvent extends Event {
+    @Keep
+    @Label("Benchmark")
+    String benchmark;
+
+    @Keep
+    @Label("Fork")
+    int fork;
+
+    @Keep
+    @Label("Iteration")
+    int iteration;
+
+    @Keep
+    @Label("Operations")
+    long operationCount;
+
+    @Keep
+    @Label("Score")
+    @Description("Average time per operation in nanoseconds")
+    double score;
+  }
+}
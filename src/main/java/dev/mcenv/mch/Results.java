@@ -1,6 +1,13 @@
 package dev.mcenv.mch;
 
-import java.util.Collection;
+import org.apache.commons.math3.exception.NotStrictlyPositiveException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static dev.mcenv.mch.Util.*;
 
 @Keep
 record Results(
@@ -18,18 +25,187 @@ record Results(
   @Keep String warmupTime,
   @Keep int measurementIterations,
   @Keep String measurementTime,
+  @Keep double confidence,
   @Keep Collection<Result> results
 ) {
+  public static Results of(
+    final MchConfig mchConfig,
+    final String mcVersion,
+    final Collection<RunResult> runResults
+  ) throws IOException {
+    final String mchVersion;
+    try (final var version = Main.class.getClassLoader().getResourceAsStream("version")) {
+      mchVersion = new String(Objects.requireNonNull(version).readAllBytes(), StandardCharsets.UTF_8).trim();
+    }
+    final var forks = mchConfig.forks();
+    final var jvm = getCurrentJvm();
+    final var jvmArgs = mchConfig.jvmArgs();
+    final var jdkVersion = System.getProperty("java.version");
+    final var vmName = System.getProperty("java.vm.name");
+    final var vmVersion = System.getProperty("java.vm.version");
+    final var mc = mchConfig.mc();
+    final var mcArgs = mchConfig.mcArgs();
+    final var warmupIterations = mchConfig.warmupIterations();
+    final var warmupTime = String.format("%d %s", mchConfig.time(), abbreviate(TimeUnit.SECONDS));
+    final var measurementIterations = mchConfig.measurementIterations();
+    final var measurementTime = String.format("%d %s", mchConfig.time(), abbreviate(TimeUnit.SECONDS));
+    final var entries = runResults
+      .stream()
+      .map(runResult -> {
+        try {
+          return Result.of(mchConfig, runResult);
+        } catch (NotStrictlyPositiveException e) {
+          throw new RuntimeException(e);
+        }
+      })
+      .toList();
+    return new Results(
+      mchVersion,
+      forks,
+      jvm,
+      jvmArgs,
+      jdkVersion,
+      vmName,
+      vmVersion,
+      mc,
+      mcArgs,
+      mcVersion,
+      warmupIterations,
+      warmupTime,
+      measurementIterations,
+      measurementTime,
+      mchConfig.confidence(),
+      entries
+    );
+  }
+
   @Keep
   public record Result(
     @Keep String group,
     @Keep String benchmark,
+    @Keep Map<String, String> params,
     @Keep String mode,
-    @Keep int count,
+    @Keep String benchmarkMode,
+    @Keep long count,
+    @Keep int outliers,
     @Keep double score,
     @Keep double error,
+    @Keep double median,
+    @Keep double[] bootstrapInterval,
+    @Keep Double baselineCorrectedScore,
+    @Keep Double baselineCorrectedError,
+    @Keep Boolean indistinguishableFromBaseline,
+    @Keep String unit,
+    @Keep double[] scores,
+    @Keep Map<String, Double> percentiles,
+    @Keep Map<String, SecondaryResult> secondaryMetrics,
+    @Keep List<CommandResult> commandBreakdown,
+    @Keep List<FunctionResult> functionBreakdown
+  ) {
+    public static Result of(
+      final MchConfig mchConfig,
+      final RunResult runResult
+    ) {
+      final var benchmarkMode = runResult.benchmarkMode();
+      final var timeUnit = mchConfig.timeUnit();
+      final var confidence = mchConfig.confidence();
+      final Map<String, Double> percentiles;
+      if (runResult.histogram() == null) {
+        percentiles = null;
+      } else {
+        percentiles = new LinkedHashMap<>();
+        for (final var percentile : Format.PERCENTILES) {
+          percentiles.put(Format.percentileName(percentile), convert(runResult.histogram().valueAtPercentile(percentile), TimeUnit.NANOSECONDS, timeUnit));
+        }
+      }
+      final Map<String, SecondaryResult> secondaryMetrics;
+      if (runResult.secondaries().isEmpty()) {
+        secondaryMetrics = null;
+      } else {
+        secondaryMetrics = new LinkedHashMap<>();
+        runResult.secondaries().forEach((name, secondary) -> secondaryMetrics.put(name, new SecondaryResult(secondary.score(), secondary.scores().length < 2 ? null : secondary.error(confidence), secondary.unit(), secondary.scores())));
+      }
+      final List<CommandResult> commandBreakdown;
+      final List<FunctionResult> functionBreakdown;
+      if (runResult.breakdown().isEmpty()) {
+        commandBreakdown = null;
+        functionBreakdown = null;
+      } else {
+        final var unit = BenchmarkMode.AVERAGE_TIME.unit(timeUnit);
+        final var totalTime = CommandBreakdown.totalTime(runResult.breakdown());
+        commandBreakdown = runResult.breakdown()
+          .stream()
+          .map(cost -> new CommandResult(
+            cost.command(),
+            cost.locations().stream().map(CommandBreakdown.Location::toString).toList(),
+            convert(cost.time(), TimeUnit.NANOSECONDS, timeUnit),
+            100.0 * cost.time() / totalTime,
+            cost.executions(),
+            unit
+          ))
+          .toList();
+        functionBreakdown = CommandBreakdown.functionTimes(runResult.breakdown())
+          .entrySet()
+          .stream()
+          .map(entry -> new FunctionResult(entry.getKey(), convert(entry.getValue(), TimeUnit.NANOSECONDS, timeUnit), 100.0 * entry.getValue() / totalTime, unit))
+          .toList();
+      }
+      return new Result(
+        runResult.group(),
+        runResult.benchmark(),
+        runResult.params().isEmpty() ? null : runResult.params(),
+        runResult.mode().toString(),
+        benchmarkMode.toString(),
+        runResult.count(),
+        runResult.outliers(),
+        benchmarkMode.convertScore(runResult.score(), timeUnit),
+        benchmarkMode.convertScore(runResult.error(confidence), timeUnit),
+        benchmarkMode.convertScore(runResult.median(), timeUnit),
+        Arrays.stream(runResult.bootstrapInterval(confidence)).map(value -> benchmarkMode.convertScore(value, timeUnit)).toArray(),
+        runResult.baseline() == null ? null : benchmarkMode.convertScore(runResult.correctedScore(), timeUnit),
+        runResult.baseline() == null ? null : benchmarkMode.convertScore(runResult.correctedError(confidence), timeUnit),
+        runResult.baseline() == null ? null : runResult.isIndistinguishable(confidence),
+        benchmarkMode.unit(timeUnit),
+        Arrays.stream(runResult.scores()).map(score -> benchmarkMode.convertScore(score, timeUnit)).toArray(),
+        percentiles,
+        secondaryMetrics,
+        commandBreakdown,
+        functionBreakdown
+      );
+    }
+
+    public String name() {
+      return Params.name(benchmark, params);
+    }
+  }
+
+  @Keep
+  public record SecondaryResult(
+    @Keep double score,
+    @Keep Double error,
     @Keep String unit,
-    @Keep Collection<Double> scores
+    @Keep double[] scores
+  ) {
+  }
+
+  // The self time of a command per operation, and its share of the time of all commands.
+  @Keep
+  public record CommandResult(
+    @Keep String command,
+    @Keep List<String> locations,
+    @Keep double score,
+    @Keep double share,
+    @Keep double executions,
+    @Keep String unit
+  ) {
+  }
+
+  @Keep
+  public record FunctionResult(
+    @Keep String function,
+    @Keep double score,
+    @Keep double share,
+    @Keep String unit
   ) {
   }
 }
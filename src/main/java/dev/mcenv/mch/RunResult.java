@@ -1,11 +1,116 @@
 package dev.mcenv.mch;
 
-import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 record RunResult(
   String group,
   String benchmark,
+  Map<String, String> params,
   Options.Iteration.Mode mode,
-  Collection<Double> scores
+  BenchmarkMode benchmarkMode,
+  double[] scores,
+  Histogram histogram,
+  RunResult baseline,
+  Map<String, Secondary> secondaries,
+  List<CommandBreakdown.Cost> breakdown
 ) {
+  public RunResult(
+    final String group,
+    final String benchmark,
+    final Map<String, String> params,
+    final Options.Iteration.Mode mode,
+    final BenchmarkMode benchmarkMode,
+    final double[] scores,
+    final Histogram histogram
+  ) {
+    this(group, benchmark, params, mode, benchmarkMode, scores, histogram, null, Map.of(), List.of());
+  }
+
+  public RunResult withBaseline(
+    final RunResult baseline
+  ) {
+    return new RunResult(group, benchmark, params, mode, benchmarkMode, scores, histogram, baseline, secondaries, breakdown);
+  }
+
+  public RunResult withSecondaries(
+    final Map<String, Secondary> secondaries
+  ) {
+    return new RunResult(group, benchmark, params, mode, benchmarkMode, scores, histogram, baseline, secondaries, breakdown);
+  }
+
+  public RunResult withBreakdown(
+    final List<CommandBreakdown.Cost> breakdown
+  ) {
+    return new RunResult(group, benchmark, params, mode, benchmarkMode, scores, histogram, baseline, secondaries, breakdown);
+  }
+
+  public String name() {
+    return Params.name(benchmark, params);
+  }
+
+  public long count() {
+    return histogram == null ? scores.length : histogram.totalCount();
+  }
+
+  public double score() {
+    return histogram == null ? Statistics.mean(scores) : histogram.mean();
+  }
+
+  public double standardDeviation() {
+    return histogram == null ? Statistics.standardDeviation(scores) : histogram.standardDeviation();
+  }
+
+  public double error(
+    final double confidence
+  ) {
+    return Statistics.error(standardDeviation(), count(), confidence);
+  }
+
+  public double median() {
+    return histogram == null ? Statistics.median(scores) : histogram.valueAtPercentile(50.0);
+  }
+
+  // Outliers and the bootstrap interval are taken over the iteration scores, also for sampled results.
+  public int outliers() {
+    return Statistics.countOutliers(scores);
+  }
+
+  public double[] bootstrapInterval(
+    final double confidence
+  ) {
+    return Statistics.bootstrapInterval(scores, confidence);
+  }
+
+  public double correctedScore() {
+    return score() - baseline.score();
+  }
+
+  public double correctedError(
+    final double confidence
+  ) {
+    return Statistics.differenceError(standardDeviation(), count(), baseline.standardDeviation(), baseline.count(), confidence);
+  }
+
+  // The corrected interval contains 0, i.e. the benchmark cannot be told apart from an empty function.
+  public boolean isIndistinguishable(
+    final double confidence
+  ) {
+    return Math.abs(correctedScore()) <= correctedError(confidence);
+  }
+
+  record Secondary(
+    String unit,
+    double[] scores
+  ) {
+    public double score() {
+      return Statistics.mean(scores);
+    }
+
+    public double error(
+      final double confidence
+    ) {
+      return Statistics.error(scores, confidence);
+    }
+  }
 }
@@ -4,15 +4,13 @@ import com.google.gson.FieldNamingPolicy;
 import com.google.gson.GsonBuilder;
 import dev.mcenv.spy.Spy;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.io.*;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,16 +18,32 @@ final class Runner {
   private final static String FILE_PREFIX = "file/";
   private final static String MCH_GROUP = "mch";
   private final static String MCH_BASELINE = "mch:baseline";
-  private final static Pattern RESOURCE_LOCATION = Pattern.compile("^([a-z0-9_.-]+)/functions/([a-z0-9/._-]+)\\.mcfunction$");
-  private final static FileSystem FILE_SYSTEM = FileSystems.getDefault();
-  private final static PathMatcher MCFUNCTION_MATCHER = FILE_SYSTEM.getPathMatcher("glob:*/functions/**.mcfunction");
+  private final static String BENCHMARK_MODES_ANNOTATION = "# @benchmark_modes ";
+  private final static String PARAM_ANNOTATION = "# @param ";
+  // separators of fork options and quotes of datapack commands
+  private final static String RESERVED_DATA_PACK_CHARACTERS = ",|\"\\";
+  private final static Nbt.TagPath<Nbt.List> ENABLED_DATA_PACKS = Nbt.TagPath.of(Nbt.List.class, "Data.DataPacks.Enabled");
+  private final static Nbt.TagPath<Nbt.List> DISABLED_DATA_PACKS = Nbt.TagPath.of(Nbt.List.class, "Data.DataPacks.Disabled");
+  private final static Path WORKERS_ROOT = Paths.get(".mch", "workers");
+  private final static Path SNAPSHOTS_ROOT = Paths.get(".mch", "snapshots");
+  private final static Path POOLS_ROOT = Paths.get(".mch", "pools");
+  private final static Path TASKSET = Paths.get("/usr/bin/taskset");
 
   private final MchConfig mchConfig;
   private final String levelName;
   private final String mcVersion;
   private final Collection<RunResult> runResults = new ArrayList<>();
+  private final Map<String, Collection<BenchmarkMode>> benchmarkModeOverrides = new HashMap<>();
+  private final Map<String, Map<String, String>> benchmarkParams = new HashMap<>();
+  private final List<Worker> workers = new ArrayList<>();
+  private final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+  private final Map<Worker, ForkPool> pools = new HashMap<>();
+  private final List<PendingRun> pendingRuns = new ArrayList<>();
+  private final Map<String, List<CommandBreakdown.Location>> commandLocations = new HashMap<>();
+  private List<String> switchedDataPacks = List.of();
+  private ExecutorService executor;
   private int done = 0;
-  private int total = 1; // 1 for baseline
+  private int total = 0;
 
   public Runner(
     final MchConfig mchConfig,
@@ -41,22 +55,44 @@ final class Runner {
     this.mcVersion = mcVersion;
   }
 
-  private static Thread runIterationThread(
-    final ServerSocket server,
-    final ArrayList<Double> scores
+  private Thread runIterationThread(
+    final Connector connector,
+    final PendingRun pendingRun,
+    final int fork
   ) {
     final var thread = new Thread(() -> {
-      try {
-        final var client = server.accept();
-        try (final var in = new ObjectInputStream(client.getInputStream())) {
-          final var object = in.readObject();
-          if (object instanceof Message.RunResult runResult) {
-            for (final var score : runResult.scores()) {
-              scores.add(score);
+      final var scores = pendingRun.forkScores().get(fork);
+      try (final var client = connector.connect()) {
+        try (final var in = new DataInputStream(new BufferedInputStream(client.getInputStream()))) {
+          Message.readHeader(in);
+          while (true) {
+            final var message = Message.read(in);
+            if (message instanceof Message.IterationResult iterationResult) {
+              if (!iterationResult.warmup()) {
+                final var benchmark = pendingRun.benchmarks().get(iterationResult.benchmark());
+                scores.get(benchmark).add(iterationResult.score());
+                printConvergence(benchmark, pendingRun.scores(benchmark), mchConfig.confidence());
+              }
+            } else if (message instanceof Message.SecondaryResult secondaryResult) {
+              pendingRun.addSecondaryScore(pendingRun.benchmarks().get(secondaryResult.benchmark()), secondaryResult.name(), secondaryResult.unit(), secondaryResult.value());
+            } else if (message instanceof Message.StackSamples stackSamples) {
+              pendingRun.mergeStacks(pendingRun.benchmarks().get(stackSamples.benchmark()), stackSamples.stacks());
+            } else if (message instanceof Message.RecordingResult recordingResult) {
+              moveRecording(pendingRun, fork, recordingResult);
+            } else if (message instanceof Message.CommandCosts commandCosts) {
+              pendingRun.breakdown(pendingRun.benchmarks().get(commandCosts.benchmark())).merge(commandCosts.operationCount(), commandCosts.costs());
+            } else if (message instanceof Message.HistogramResult histogramResult) {
+              pendingRun.mergeHistogram(pendingRun.benchmarks().get(histogramResult.benchmark()), histogramResult.histogram());
+            } else if (message instanceof Message.MaxCommandChainLengthExceeded) {
+              for (final var benchmarkScores : scores.values()) {
+                benchmarkScores.clear();
+              }
             }
           }
         }
-      } catch (final IOException | ClassNotFoundException e) {
+      } catch (final EOFException | SocketException ignored) {
+        // the fork has exited, possibly before connecting or in the middle of a run
+      } catch (final IOException e) {
         throw new IllegalStateException(e);
       }
     });
@@ -64,7 +100,19 @@ final class Runner {
     return thread;
   }
 
+  private static void printConvergence(
+    final String benchmark,
+    final double[] scores,
+    final double confidence
+  ) {
+    if (scores.length >= 2) {
+      System.out.printf("%s: %f ± %f ns/op (%d)\n", benchmark, Statistics.mean(scores), Statistics.error(scores, confidence), scores.length);
+    }
+  }
+
   public void run() throws InterruptedException, IOException {
+    final var previousResults = mchConfig.compare() == null ? null : Comparison.load(mchConfig);
+
     setupRun(true);
 
     final var benchmarksByDataPack = new LinkedHashMap<String, List<String>>();
@@ -72,76 +120,214 @@ final class Runner {
     final var prefixedBenchmarkDataPacks = benchmarkDataPacks.stream()
       .map(dataPack -> FILE_PREFIX + dataPack)
       .collect(Collectors.toSet());
+    if (mchConfig.switchDataPacks()) {
+      switchedDataPacks = prefixedBenchmarkDataPacks.stream().sorted().toList();
+    }
 
-    total += mchConfig.parsingBenchmarks().size();
-    total += mchConfig.executeBenchmarks().size();
+    final var parsingBenchmarks = expandCommands(mchConfig.parsingBenchmarks());
+    final var executeBenchmarks = expandCommands(mchConfig.executeBenchmarks());
+    for (final var benchmark : parsingBenchmarks) {
+      total += countRuns(benchmark, Options.Iteration.Mode.PARSING);
+    }
+    for (final var benchmark : executeBenchmarks) {
+      total += countRuns(benchmark, Options.Iteration.Mode.EXECUTE);
+    }
+    final var index = BenchmarkIndex.load();
     for (final var benchmarkDataPack : benchmarkDataPacks) {
-      final var benchmarks = collectBenchmarkFunctions(benchmarkDataPack);
-      total += benchmarks.size();
+      final var benchmarks = collectBenchmarkFunctions(index, benchmarkDataPack);
+      for (final var benchmark : benchmarks) {
+        total += countRuns(benchmark, Options.Iteration.Mode.FUNCTION);
+      }
       benchmarksByDataPack.put(FILE_PREFIX + benchmarkDataPack, benchmarks);
     }
+    index.save();
+    if (!benchmarksByDataPack.isEmpty()) {
+      // tick benchmarks are reported relative to empty ticks, which are measured with the baseline
+      if (benchmarksByDataPack.values().stream().flatMap(List::stream).anyMatch(this::isTick) && !isTick(MCH_BASELINE)) {
+        final var benchmarkModes = new ArrayList<>(benchmarkModes(MCH_BASELINE));
+        benchmarkModes.add(BenchmarkMode.TICK);
+        benchmarkModeOverrides.put(MCH_BASELINE, benchmarkModes);
+      }
+      total += countRuns(MCH_BASELINE, Options.Iteration.Mode.FUNCTION);
+    }
     total *= mchConfig.forks();
 
+    if (mchConfig.profilers().stream().anyMatch(profiler -> profiler instanceof Profiler.Breakdown)) {
+      indexCommands();
+    }
+
     modifyLevelStorage(prefixedBenchmarkDataPacks, null);
 
-    for (final var benchmark : mchConfig.parsingBenchmarks()) {
-      iterationRun(benchmark, Options.Iteration.Mode.PARSING, MCH_GROUP, false);
-    }
+    createWorkers();
+    executor = Executors.newFixedThreadPool(workers.size());
+    final var shutdownHook = new Thread(() -> {
+      try {
+        System.out.println("Writing partial results");
+        writeResults();
+      } catch (final IOException e) {
+        e.printStackTrace();
+      }
+    });
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    try {
+      synchronizeWorkers();
 
-    for (final var benchmark : mchConfig.executeBenchmarks()) {
-      iterationRun(benchmark, Options.Iteration.Mode.EXECUTE, MCH_GROUP, false);
-    }
+      for (final var benchmark : parsingBenchmarks) {
+        groupRun(List.of(benchmark), Options.Iteration.Mode.PARSING, MCH_GROUP, false);
+      }
 
-    if (!benchmarksByDataPack.isEmpty()) {
-      iterationRun(MCH_BASELINE, Options.Iteration.Mode.FUNCTION, MCH_GROUP, false);
-
-      for (final var entry : benchmarksByDataPack.entrySet()) {
-        final var dataPack = entry.getKey();
-        final var benchmarks = entry.getValue();
-        modifyLevelStorage(prefixedBenchmarkDataPacks, dataPack);
-        setupRun(false);
-        for (var i = 0; i < benchmarks.size(); ++i) {
-          iterationRun(benchmarks.get(i), Options.Iteration.Mode.FUNCTION, dataPack.substring(FILE_PREFIX.length()), i == benchmarks.size() - 1);
+      for (final var benchmark : executeBenchmarks) {
+        groupRun(List.of(benchmark), Options.Iteration.Mode.EXECUTE, MCH_GROUP, false);
+      }
+
+      if (!benchmarksByDataPack.isEmpty()) {
+        groupRun(List.of(MCH_BASELINE), Options.Iteration.Mode.FUNCTION, MCH_GROUP, false);
+
+        for (final var entry : benchmarksByDataPack.entrySet()) {
+          final var dataPack = entry.getKey();
+          final var benchmarks = entry.getValue();
+          awaitPendingRuns();
+          if (!mchConfig.switchDataPacks()) {
+            modifyLevelStorage(prefixedBenchmarkDataPacks, dataPack);
+            setupRun(false);
+            synchronizeWorkers();
+          }
+          final var group = dataPack.substring(FILE_PREFIX.length());
+          groupRun(benchmarks, Options.Iteration.Mode.FUNCTION, group, true);
         }
       }
+
+      awaitPendingRuns();
+      if (mchConfig.switchDataPacks()) {
+        // forks leave the data pack of the last group enabled
+        modifyLevelStorage(prefixedBenchmarkDataPacks, null);
+      }
+    } finally {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      executor.shutdownNow();
+      for (final var pool : pools.values()) {
+        pool.clear();
+      }
+    }
+
+    writeResults();
+
+    if (mchConfig.history() != null) {
+      History.append(Paths.get(mchConfig.history()), Results.of(mchConfig, mcVersion, collectResults()));
     }
 
+    if (previousResults != null) {
+      Comparison.compare(mchConfig, previousResults, collectResults());
+    }
+  }
+
+  private synchronized void writeResults() throws IOException {
+    final var results = collectResults();
     for (final var format : mchConfig.formats()) {
-      format.write(mchConfig, mcVersion, runResults);
+      format.write(mchConfig, mcVersion, results);
+    }
+  }
+
+  private synchronized List<RunResult> collectResults() {
+    final var results = new ArrayList<>(runResults);
+    for (final var pendingRun : pendingRuns) {
+      results.addAll(toRunResults(pendingRun));
+    }
+    results.removeIf(runResult -> runResult.scores().length < 2);
+    subtractBaseline(results, mchConfig.subtractBaseline());
+    return results;
+  }
+
+  // Ticks are always corrected, whereas other function benchmarks are only corrected if requested.
+  private static void subtractBaseline(
+    final List<RunResult> results,
+    final boolean functions
+  ) {
+    final var baselines = new EnumMap<BenchmarkMode, RunResult>(BenchmarkMode.class);
+    for (final var result : results) {
+      if (MCH_GROUP.equals(result.group()) && MCH_BASELINE.equals(result.benchmark())) {
+        baselines.put(result.benchmarkMode(), result);
+      }
     }
+    results.replaceAll(result -> {
+      final var baseline = baselines.get(result.benchmarkMode());
+      final var corrected = switch (result.mode()) {
+        case FUNCTION -> functions;
+        case TICK -> true;
+        default -> false;
+      };
+      // throughput is not additive, so only times are corrected
+      if (baseline == null || result == baseline || !corrected || result.benchmarkMode() == BenchmarkMode.THROUGHPUT) {
+        return result;
+      }
+      return result.withBaseline(baseline);
+    });
   }
 
   private List<String> collectBenchmarkFunctions(
+    final BenchmarkIndex index,
     final String dataPack
   ) throws IOException {
     final var functions = new ArrayList<String>();
-    final var root = Paths.get(levelName, "datapacks", dataPack, "data");
-    final var visitor = new SimpleFileVisitor<Path>() {
-      @Override
-      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        final var relativePath = root.relativize(file);
-        if (MCFUNCTION_MATCHER.matches(relativePath)) {
-          try (final var reader = new BufferedReader(new FileReader(file.toFile()))) {
-            String line;
-            while ((line = reader.readLine()) != null && (line = line.trim()).startsWith("#")) {
-              if ("# @benchmark".equals(line)) {
-                final var invariantSeparatorsPathString = relativePath.toString().replace(FILE_SYSTEM.getSeparator(), "/");
-                final var matcher = RESOURCE_LOCATION.matcher(invariantSeparatorsPathString);
-                if (matcher.matches()) {
-                  final var namespace = matcher.group(1);
-                  final var path = matcher.group(2);
-                  functions.add(namespace + ':' + path);
-                }
-              }
+    for (final var entry : index.scan(Paths.get(levelName, "datapacks", dataPack)).entrySet()) {
+      Collection<BenchmarkMode> benchmarkModes = null;
+      final var params = new LinkedHashMap<String, List<String>>();
+      for (final var annotation : entry.getValue()) {
+        if (annotation.startsWith(BENCHMARK_MODES_ANNOTATION)) {
+          benchmarkModes = Arrays.stream(annotation.substring(BENCHMARK_MODES_ANNOTATION.length()).trim().split("\\s+"))
+            .map(BenchmarkMode::parse)
+            .toList();
+        } else if (annotation.startsWith(PARAM_ANNOTATION)) {
+          Params.parse(annotation.substring(PARAM_ANNOTATION.length()), params);
+        }
+      }
+      for (final var combination : Params.combinations(params)) {
+        final var function = Params.append(entry.getKey(), combination);
+        functions.add(function);
+        if (!combination.isEmpty()) {
+          benchmarkParams.put(function, combination);
+        }
+        if (benchmarkModes != null) {
+          benchmarkModeOverrides.put(function, benchmarkModes);
+        }
+      }
+    }
+    // the sort is stable, so that the combinations of a function keep their order
+    functions.sort(Comparator.comparing(Params::function));
+    return functions;
+  }
+
+  // Expands the commands that refer to parameters into a command per combination of their values.
+  private List<String> expandCommands(
+    final Collection<String> commands
+  ) {
+    final var result = new ArrayList<String>();
+    for (final var command : commands) {
+      for (final var combination : Params.combinations(Params.referenced(command, mchConfig.params()))) {
+        final var expanded = Params.substitute(command, combination);
+        result.add(expanded);
+        if (!combination.isEmpty()) {
+          benchmarkParams.put(expanded, combination);
+        }
+      }
+    }
+    return result;
+  }
+
+  // Indexes the commands of all functions in all data packs, which may be called by benchmarks.
+  private void indexCommands() throws IOException {
+    final var dataPacksRoot = Paths.get(levelName, "datapacks");
+    try (final var dataPacks = Files.list(dataPacksRoot)) {
+      for (final var dataPack : dataPacks.toList()) {
+        try (final var fileSystem = BenchmarkIndex.open(dataPack)) {
+          for (final var functionFile : BenchmarkIndex.functionFiles(BenchmarkIndex.root(dataPack, fileSystem))) {
+            try (final var reader = Files.newBufferedReader(functionFile.file())) {
+              CommandBreakdown.index(functionFile.function(), reader, commandLocations);
             }
           }
         }
-        return FileVisitResult.CONTINUE;
       }
-    };
-    Files.walkFileTree(root, visitor);
-    functions.sort(null);
-    return functions;
+    }
   }
 
   private void modifyLevelStorage(
@@ -149,36 +335,35 @@ final class Runner {
     final String enabledDataPack
   ) throws IOException {
     final var levelDat = Paths.get(levelName, "level.dat");
-    final var levelStorage = Nbt.read(levelDat);
-    final var data = (Nbt.Compound) levelStorage.elements().get("Data");
-    final var dataPacks = (Nbt.Compound) data.elements().get("DataPacks");
-
-    final var enabledDataPacks = new LinkedHashSet<Nbt.String>();
-    for (final var element : ((Nbt.List) dataPacks.elements().get("Enabled")).elements()) {
-      if (!benchmarkDataPacks.contains(((Nbt.String) element).value())) {
-        enabledDataPacks.add((Nbt.String) element);
-      }
-    }
-    if (enabledDataPack != null) {
-      enabledDataPacks.add(new Nbt.String(enabledDataPack));
-    }
-
-    final var disabledDataPacks = new LinkedHashSet<Nbt.String>();
-    for (final var element : ((Nbt.List) dataPacks.elements().get("Disabled")).elements()) {
-      disabledDataPacks.add(((Nbt.String) element));
-    }
-    for (final var benchmarkDataPack : benchmarkDataPacks) {
-      disabledDataPacks.add(new Nbt.String(benchmarkDataPack));
-    }
-    if (enabledDataPack != null) {
-      disabledDataPacks.remove(new Nbt.String(enabledDataPack));
-    }
-
-    dataPacks.elements().put("Enabled", new Nbt.List(enabledDataPacks.stream().toList()));
-    dataPacks.elements().put("Disabled", new Nbt.List(disabledDataPacks.stream().toList()));
-
     System.out.println("Overwriting Data.DataPacks in level.dat");
-    Nbt.write(levelStorage, levelDat);
+    Nbt.patch(
+      levelDat,
+      new Nbt.Patch<>(ENABLED_DATA_PACKS, enabled -> {
+        final var enabledDataPacks = new LinkedHashSet<Nbt.String>();
+        for (final var element : enabled.elements()) {
+          if (!benchmarkDataPacks.contains(((Nbt.String) element).value())) {
+            enabledDataPacks.add((Nbt.String) element);
+          }
+        }
+        if (enabledDataPack != null) {
+          enabledDataPacks.add(new Nbt.String(enabledDataPack));
+        }
+        return new Nbt.List(enabledDataPacks.stream().toList());
+      }),
+      new Nbt.Patch<>(DISABLED_DATA_PACKS, disabled -> {
+        final var disabledDataPacks = new LinkedHashSet<Nbt.String>();
+        for (final var element : disabled.elements()) {
+          disabledDataPacks.add(((Nbt.String) element));
+        }
+        for (final var benchmarkDataPack : benchmarkDataPacks) {
+          disabledDataPacks.add(new Nbt.String(benchmarkDataPack));
+        }
+        if (enabledDataPack != null) {
+          disabledDataPacks.remove(new Nbt.String(enabledDataPack));
+        }
+        return new Nbt.List(disabledDataPacks.stream().toList());
+      })
+    );
   }
 
   private void setupRun(
@@ -204,13 +389,18 @@ final class Runner {
     final var dataPacksRoot = Paths.get(levelName, "datapacks");
     try (final var dataPacks = Files.list(dataPacksRoot)) {
       return dataPacks
-        .map(dataPackRoot -> dataPackRoot.resolve("pack.mcmeta"))
-        .filter(Files::isRegularFile)
-        .flatMap(packMetadataPath -> {
-          try (final var reader = Files.newBufferedReader(packMetadataPath)) {
+        .flatMap(dataPack -> {
+          try (
+            final var fileSystem = BenchmarkIndex.open(dataPack);
+            final var reader = Files.newBufferedReader(BenchmarkIndex.root(dataPack, fileSystem).resolve("pack.mcmeta"))
+          ) {
             final var packMetadata = gson.fromJson(reader, PackMetadata.class);
             if (Boolean.TRUE.equals(packMetadata.pack.mch)) {
-              return Stream.of(dataPacksRoot.relativize(packMetadataPath.getParent()).toString());
+              final var name = dataPack.getFileName().toString();
+              if (name.chars().anyMatch(c -> RESERVED_DATA_PACK_CHARACTERS.indexOf(c) != -1)) {
+                throw new IllegalStateException("Benchmark data pack names must not contain any of " + RESERVED_DATA_PACK_CHARACTERS + ": " + name);
+              }
+              return Stream.of(name);
             } else {
               return Stream.of();
             }
@@ -223,46 +413,519 @@ final class Runner {
     }
   }
 
-  private void iterationRun(
+  private void createWorkers() throws IOException {
+    final var parallelForks = mchConfig.parallelForks();
+    final var processors = Runtime.getRuntime().availableProcessors();
+    final var processorsPerWorker = Math.max(1, processors / parallelForks);
+    for (var id = 0; id < parallelForks; ++id) {
+      final Worker worker;
+      if (parallelForks == 1) {
+        worker = new Worker(null, -1, null, 0);
+      } else {
+        final var firstProcessor = (id * processorsPerWorker) % processors;
+        final var cpus = firstProcessor + "-" + (firstProcessor + processorsPerWorker - 1);
+        if (id == 0) {
+          worker = new Worker(null, -1, cpus, processorsPerWorker);
+        } else {
+          try (final var socket = new ServerSocket(0)) {
+            worker = new Worker(WORKERS_ROOT.resolve(String.valueOf(id)), socket.getLocalPort(), cpus, processorsPerWorker);
+          }
+        }
+      }
+      workers.add(worker);
+      idleWorkers.add(worker);
+      if (mchConfig.poolForks()) {
+        // the last fork of a group runs in the world of the worker, so with restore_world servers copy the snapshot
+        final var world = mchConfig.restoreWorld() ? snapshot(worker) : world(worker);
+        pools.put(worker, new ForkPool(world, POOLS_ROOT.resolve(String.valueOf(id)), levelName, (options, mcArgs) -> createFork(worker, options, mcArgs)));
+      }
+    }
+  }
+
+  private void synchronizeWorkers() throws IOException, InterruptedException {
+    for (final var pool : pools.values()) {
+      pool.clear();
+    }
+    for (final var worker : workers) {
+      if (worker.universe() != null) {
+        System.out.printf("Copying %s to %s\n", levelName, worker.universe());
+        Worlds.copy(Paths.get(levelName), worker.universe().resolve(levelName));
+      }
+      if (mchConfig.restoreWorld()) {
+        System.out.printf("Taking a snapshot of %s\n", world(worker));
+        Worlds.synchronize(world(worker), snapshot(worker));
+      }
+    }
+  }
+
+  private Path world(
+    final Worker worker
+  ) {
+    return worker.universe() == null ? Paths.get(levelName) : worker.universe().resolve(levelName);
+  }
+
+  private Path snapshot(
+    final Worker worker
+  ) {
+    return SNAPSHOTS_ROOT.resolve(String.valueOf(workers.indexOf(worker)));
+  }
+
+  private Collection<BenchmarkMode> benchmarkModes(
+    final String benchmark
+  ) {
+    return benchmarkModeOverrides.getOrDefault(benchmark, mchConfig.benchmarkModes());
+  }
+
+  // Single-shot iterations time exactly one operation and ticks run in the tick loop, so they need runs of their own.
+  private boolean isTimed(
+    final String benchmark
+  ) {
+    return benchmarkModes(benchmark).stream().anyMatch(benchmarkMode -> benchmarkMode != BenchmarkMode.SINGLE_SHOT && benchmarkMode != BenchmarkMode.TICK);
+  }
+
+  private boolean isSingleShot(
+    final String benchmark
+  ) {
+    return benchmarkModes(benchmark).contains(BenchmarkMode.SINGLE_SHOT);
+  }
+
+  // Only functions can be run in ticks.
+  private boolean isTick(
+    final String benchmark
+  ) {
+    return benchmarkModes(benchmark).contains(BenchmarkMode.TICK);
+  }
+
+  private int countRuns(
     final String benchmark,
+    final Options.Iteration.Mode mode
+  ) {
+    return (isTimed(benchmark) ? 1 : 0) + (isSingleShot(benchmark) ? 1 : 0) + (mode == Options.Iteration.Mode.FUNCTION && isTick(benchmark) ? 1 : 0);
+  }
+
+  private void groupRun(
+    final List<String> benchmarks,
     final Options.Iteration.Mode mode,
     final String group,
+    final boolean lastGroupRun
+  ) throws IOException, InterruptedException {
+    final var runs = new ArrayList<Run>();
+    for (final var singleShot : List.of(false, true)) {
+      final var selected = benchmarks.stream()
+        .filter(benchmark -> singleShot ? isSingleShot(benchmark) : isTimed(benchmark))
+        .toList();
+      addRuns(runs, selected, mode, singleShot);
+    }
+    if (mode == Options.Iteration.Mode.FUNCTION) {
+      addRuns(runs, benchmarks.stream().filter(this::isTick).toList(), Options.Iteration.Mode.TICK, false);
+    }
+    for (var i = 0; i < runs.size(); ++i) {
+      final var run = runs.get(i);
+      iterationRun(run.benchmarks(), run.mode(), group, run.singleShot(), lastGroupRun && i == runs.size() - 1);
+    }
+  }
+
+  private void addRuns(
+    final List<Run> runs,
+    final List<String> benchmarks,
+    final Options.Iteration.Mode mode,
+    final boolean singleShot
+  ) {
+    if (mchConfig.reuseForks() && !benchmarks.isEmpty()) {
+      runs.add(new Run(benchmarks, mode, singleShot));
+    } else {
+      for (final var benchmark : benchmarks) {
+        runs.add(new Run(List.of(benchmark), mode, singleShot));
+      }
+    }
+  }
+
+  private void iterationRun(
+    final List<String> benchmarks,
+    final Options.Iteration.Mode mode,
+    final String group,
+    final boolean singleShot,
     final boolean lastInGroup
   ) throws IOException, InterruptedException {
-    final var scores = new ArrayList<Double>();
+    final var forkScores = new ArrayList<Map<String, List<Double>>>();
     for (var fork = 0; fork < mchConfig.forks(); ++fork) {
-      try (final var server = new ServerSocket(0)) {
-        final var thread = runIterationThread(server, scores);
-
-        final var lastIterationInGroup = lastInGroup && fork == mchConfig.forks() - 1;
-        final var port = server.getLocalPort();
-        final var progress = 100.0f * done++ / total;
-        final var options = new Options.Iteration(
-          mchConfig.autoStart(),
-          lastIterationInGroup,
-          mchConfig.warmupIterations(),
-          mchConfig.measurementIterations(),
-          mchConfig.time(),
-          mchConfig.forks(),
-          fork,
-          port,
-          progress,
-          mode,
-          benchmark
-        ).toString();
-
-        Spy.create(
-          Paths.get(mchConfig.mc()),
-          MchCommands.class,
-          options,
-          mchConfig.mcArgs().toArray(new String[0]),
-          mchConfig.jvmArgs().toArray(new String[0])
-        ).inheritIO().start().waitFor();
-
-        thread.join();
-      }
-    }
-    runResults.add(new RunResult(group, benchmark, mode, scores));
+      final var scores = new LinkedHashMap<String, List<Double>>();
+      for (final var benchmark : benchmarks) {
+        scores.put(benchmark, Collections.synchronizedList(new ArrayList<>()));
+      }
+      forkScores.add(scores);
+    }
+    final var pendingRun = new PendingRun(group, benchmarks, mode, singleShot, forkScores, new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(), new ArrayList<>());
+    synchronized (this) {
+      pendingRuns.add(pendingRun);
+    }
+
+    for (var fork = 0; fork < mchConfig.forks(); ++fork) {
+      final var lastIterationInGroup = lastInGroup && fork == mchConfig.forks() - 1;
+      final var progress = 100.0f * done / total;
+      done += benchmarks.size();
+      final var currentFork = fork;
+      if (lastIterationInGroup) {
+        // #mch:teardown must be run in the original world after all other forks of the group have finished
+        for (final var run : pendingRuns) {
+          for (final var forkResult : run.forkResults()) {
+            await(forkResult);
+          }
+        }
+        forkRun(workers.get(0), pendingRun, currentFork, progress, true);
+        pendingRun.forkResults().add(CompletableFuture.completedFuture(null));
+      } else {
+        pendingRun.forkResults().add(executor.submit(() -> {
+          final var worker = idleWorkers.take();
+          try {
+            forkRun(worker, pendingRun, currentFork, progress, false);
+            return null;
+          } finally {
+            idleWorkers.put(worker);
+          }
+        }));
+      }
+    }
+  }
+
+  private void awaitPendingRuns() throws IOException, InterruptedException {
+    if (pendingRuns.isEmpty()) {
+      return;
+    }
+    for (final var pendingRun : pendingRuns) {
+      for (final var forkResult : pendingRun.forkResults()) {
+        await(forkResult);
+      }
+    }
+    synchronized (this) {
+      for (final var pendingRun : pendingRuns) {
+        for (final var runResult : toRunResults(pendingRun)) {
+          if (runResult.scores().length < 2) {
+            // results need at least two scores over measurement iterations and forks for their errors
+            System.err.printf("Skipping %s, which has fewer than 2 scores\n", runResult.name());
+          }
+          runResults.add(runResult);
+        }
+        writeFlameGraphs(pendingRun);
+      }
+      pendingRuns.clear();
+    }
+    writeResults();
+  }
+
+  private void writeFlameGraphs(
+    final PendingRun pendingRun
+  ) throws IOException {
+    for (final var entry : pendingRun.stacks().entrySet()) {
+      final var benchmark = entry.getKey();
+      final var name = outputName(pendingRun, benchmark);
+      final var folded = Paths.get(name + ".folded");
+      System.out.printf("Writing stack samples of %s to %s\n", benchmark, folded);
+      FlameGraph.writeFolded(folded, entry.getValue());
+      FlameGraph.writeSvg(Paths.get(name + ".svg"), pendingRun.group() + " " + benchmark, entry.getValue());
+    }
+  }
+
+  // A per-benchmark output file name without extension, which is safe to use on any file system.
+  private String outputName(
+    final PendingRun pendingRun,
+    final String benchmark
+  ) {
+    return mchConfig.output() + "-" + (pendingRun.group() + "-" + benchmark + (pendingRun.singleShot() ? "-ss" : ""))
+      .replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  private void moveRecording(
+    final PendingRun pendingRun,
+    final int fork,
+    final Message.RecordingResult recordingResult
+  ) throws IOException {
+    final var benchmark = pendingRun.benchmarks().get(recordingResult.benchmark());
+    final var recording = Paths.get(outputName(pendingRun, benchmark) + "-" + (fork + 1) + ".jfr");
+    System.out.printf("Writing JFR recording of %s to %s\n", benchmark, recording);
+    Files.move(Paths.get(recordingResult.path()), recording, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private List<RunResult> toRunResults(
+    final PendingRun pendingRun
+  ) {
+    final var results = new ArrayList<RunResult>();
+    for (final var benchmark : pendingRun.benchmarks()) {
+      final var scores = pendingRun.scores(benchmark);
+      final var name = switch (pendingRun.mode()) {
+        case PARSING, EXECUTE -> benchmark;
+        case FUNCTION, TICK -> Params.function(benchmark);
+      };
+      final var params = benchmarkParams.getOrDefault(benchmark, Map.of());
+      final var first = results.size();
+      for (final var benchmarkMode : benchmarkModes(benchmark)) {
+        if (pendingRun.singleShot() != (benchmarkMode == BenchmarkMode.SINGLE_SHOT) || (pendingRun.mode() == Options.Iteration.Mode.TICK) != (benchmarkMode == BenchmarkMode.TICK)) {
+          continue;
+        }
+        switch (benchmarkMode) {
+          case AVERAGE_TIME, SINGLE_SHOT -> results.add(new RunResult(pendingRun.group(), name, params, pendingRun.mode(), benchmarkMode, scores, null));
+          case SAMPLE_TIME -> {
+            final var histogram = pendingRun.histogram(benchmark);
+            if (histogram != null) {
+              results.add(new RunResult(pendingRun.group(), name, params, pendingRun.mode(), benchmarkMode, scores, histogram));
+            }
+          }
+          case THROUGHPUT -> results.add(new RunResult(pendingRun.group(), name, params, pendingRun.mode(), benchmarkMode, Statistics.reciprocals(scores), null));
+          // every tick is sampled, so that tick durations are reported with percentiles
+          case TICK -> results.add(new RunResult(pendingRun.group(), name, params, pendingRun.mode(), benchmarkMode, scores, pendingRun.histogram(benchmark)));
+        }
+      }
+      // secondary metrics and the breakdown are reported once per run, along with the first benchmark mode
+      if (results.size() > first) {
+        results.set(first, results.get(first).withSecondaries(pendingRun.secondaries(benchmark)));
+        if (pendingRun.breakdowns().containsKey(benchmark)) {
+          results.set(first, results.get(first).withBreakdown(pendingRun.breakdown(benchmark).costs(commandLocations)));
+        }
+      }
+    }
+    return results;
+  }
+
+  private static void await(
+    final Future<?> future
+  ) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void forkRun(
+    final Worker worker,
+    final PendingRun pendingRun,
+    final int fork,
+    final float progress,
+    final boolean lastIterationInGroup
+  ) throws IOException, InterruptedException {
+    // the last fork of a group runs #mch:teardown, which must be run in the original world rather than in a copy
+    final var pool = lastIterationInGroup ? null : pools.get(worker);
+    if (pool != null) {
+      // the server of the fork has booted in a copy of the world while the previous fork shut down, so it starts from
+      // the same state as restore_world would restore
+      final var member = pool.take();
+      // unblocks accept() if the fork exits without connecting
+      member.process().onExit().thenRun(member::release);
+      final var options = iterationOptions(pendingRun, fork, progress, lastIterationInGroup, member.server().getLocalPort());
+      final var thread = runIterationThread(() -> member.connect(options), pendingRun, fork);
+
+      // the fork disconnects after its last iteration, so that the next server does not boot during measurements
+      thread.join();
+      pool.prepare();
+      member.process().waitFor();
+      return;
+    }
+
+    if (mchConfig.restoreWorld()) {
+      // every fork starts from the state of the world after the setup of its group
+      Worlds.synchronize(snapshot(worker), world(worker));
+    }
+
+    final var server = new ServerSocket(0);
+    final Thread thread;
+    try {
+      thread = runIterationThread(server::accept, pendingRun, fork);
+
+      final var options = iterationOptions(pendingRun, fork, progress, lastIterationInGroup, server.getLocalPort());
+      final var mcArgs = new ArrayList<String>();
+      if (worker.universe() != null) {
+        mcArgs.addAll(List.of("--universe", worker.universe().toString(), "--world", levelName, "--port", String.valueOf(worker.port())));
+      }
+      createFork(worker, options, mcArgs).inheritIO().start().waitFor();
+    } finally {
+      // unblocks accept() if the fork has exited without connecting
+      server.close();
+    }
+    thread.join();
+  }
+
+  private String iterationOptions(
+    final PendingRun pendingRun,
+    final int fork,
+    final float progress,
+    final boolean lastIterationInGroup,
+    final int port
+  ) {
+    return new Options.Iteration(
+      mchConfig.autoStart(),
+      lastIterationInGroup,
+      mchConfig.warmupIterations(),
+      mchConfig.measurementIterations(),
+      mchConfig.maxMeasurementIterations(),
+      mchConfig.targetError(),
+      mchConfig.confidence(),
+      mchConfig.time(),
+      mchConfig.batchSize(),
+      pendingRun.mode() == Options.Iteration.Mode.PARSING && !pendingRun.singleShot() ? mchConfig.threads() : 1,
+      pendingRun.mode() == Options.Iteration.Mode.TICK || !pendingRun.singleShot() && pendingRun.benchmarks().stream().anyMatch(benchmark -> benchmarkModes(benchmark).contains(BenchmarkMode.SAMPLE_TIME)),
+      pendingRun.singleShot(),
+      List.copyOf(mchConfig.profilers()),
+      mchConfig.forks(),
+      fork,
+      port,
+      progress,
+      switchedDataPacks.isEmpty() || MCH_GROUP.equals(pendingRun.group()) ? "" : FILE_PREFIX + pendingRun.group(),
+      pendingRun.mode() == Options.Iteration.Mode.FUNCTION || pendingRun.mode() == Options.Iteration.Mode.TICK ? switchedDataPacks : List.of(),
+      pendingRun.mode(),
+      pendingRun.benchmarks()
+    ).toString();
+  }
+
+  private ProcessBuilder createFork(
+    final Worker worker,
+    final String options,
+    final List<String> universeArgs
+  ) throws IOException {
+    final var mcArgs = new ArrayList<>(mchConfig.mcArgs());
+    final var jvmArgs = new ArrayList<>(mchConfig.jvmArgs());
+    mcArgs.addAll(universeArgs);
+    if (worker.cpus() != null) {
+      jvmArgs.add("-XX:ActiveProcessorCount=" + worker.processors());
+    }
+
+    final var builder = Spy.create(
+      Paths.get(mchConfig.mc()),
+      MchCommands.class,
+      options,
+      mcArgs.toArray(new String[0]),
+      jvmArgs.toArray(new String[0])
+    );
+    if (worker.cpus() != null && Files.isExecutable(TASKSET)) {
+      final var command = new ArrayList<>(List.of(TASKSET.toString(), "-c", worker.cpus()));
+      command.addAll(builder.command());
+      builder.command(command);
+    }
+    return builder;
+  }
+
+  @FunctionalInterface
+  private interface Connector {
+    Socket connect() throws IOException;
+  }
+
+  private record Run(
+    List<String> benchmarks,
+    Options.Iteration.Mode mode,
+    boolean singleShot
+  ) {
+  }
+
+  private record Worker(
+    Path universe,
+    int port,
+    String cpus,
+    int processors
+  ) {
+  }
+
+  private record PendingRun(
+    String group,
+    List<String> benchmarks,
+    Options.Iteration.Mode mode,
+    boolean singleShot,
+    List<Map<String, List<Double>>> forkScores,
+    Map<String, Histogram> histograms,
+    Map<String, Map<String, SecondaryScores>> secondaryScores,
+    Map<String, Map<String, Long>> stacks,
+    Map<String, CommandBreakdown> breakdowns,
+    List<Future<?>> forkResults
+  ) {
+    public CommandBreakdown breakdown(
+      final String benchmark
+    ) {
+      synchronized (breakdowns) {
+        return breakdowns.computeIfAbsent(benchmark, key -> new CommandBreakdown());
+      }
+    }
+
+    public void mergeStacks(
+      final String benchmark,
+      final Map<String, Long> stacks
+    ) {
+      synchronized (this.stacks) {
+        final var merged = this.stacks.computeIfAbsent(benchmark, key -> new HashMap<>());
+        stacks.forEach((stack, samples) -> merged.merge(stack, samples, Long::sum));
+      }
+    }
+
+    public void addSecondaryScore(
+      final String benchmark,
+      final String name,
+      final String unit,
+      final double score
+    ) {
+      synchronized (secondaryScores) {
+        secondaryScores
+          .computeIfAbsent(benchmark, key -> new LinkedHashMap<>())
+          .computeIfAbsent(name, key -> new SecondaryScores(unit, new ArrayList<>()))
+          .scores()
+          .add(score);
+      }
+    }
+
+    public Map<String, RunResult.Secondary> secondaries(
+      final String benchmark
+    ) {
+      synchronized (secondaryScores) {
+        final var result = new LinkedHashMap<String, RunResult.Secondary>();
+        for (final var entry : secondaryScores.getOrDefault(benchmark, Map.of()).entrySet()) {
+          final var secondaryScores = entry.getValue();
+          result.put(entry.getKey(), new RunResult.Secondary(secondaryScores.unit(), secondaryScores.scores().stream().mapToDouble(Double::doubleValue).toArray()));
+        }
+        return result;
+      }
+    }
+
+    public Histogram histogram(
+      final String benchmark
+    ) {
+      synchronized (histograms) {
+        final var histogram = histograms.get(benchmark);
+        if (histogram == null) {
+          return null;
+        }
+        final var result = new Histogram();
+        result.merge(histogram);
+        return result;
+      }
+    }
+
+    public void mergeHistogram(
+      final String benchmark,
+      final Histogram histogram
+    ) {
+      synchronized (histograms) {
+        final var merged = histograms.computeIfAbsent(benchmark, key -> new Histogram());
+        merged.merge(histogram);
+      }
+    }
+
+    public double[] scores(
+      final String benchmark
+    ) {
+      final var result = new ArrayList<Double>();
+      for (final var scores : forkScores) {
+        final var benchmarkScores = scores.get(benchmark);
+        synchronized (benchmarkScores) {
+          result.addAll(benchmarkScores);
+        }
+      }
+      return result.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+  }
+
+  private record SecondaryScores(
+    String unit,
+    List<Double> scores
+  ) {
   }
 
   @Keep
@@ -16,6 +16,9 @@ record ServerProperties(
   public static final String MAX_TICK_TIME_KEY = "max-tick-time";
   public static final int MAX_TICK_TIME_REQUIRED = -1;
 
+  public static final String ENABLE_JMX_MONITORING_KEY = "enable-jmx-monitoring";
+  public static final boolean ENABLE_JMX_MONITORING_REQUIRED = true;
+
   public static final String LEVEL_NAME_KEY = "level-name";
   public static final String LEVEL_NAME_DEFAULT = "world";
 
@@ -37,12 +40,18 @@ record ServerProperties(
       if (maxTickTime == null || maxTickTime != MAX_TICK_TIME_REQUIRED) {
         System.out.printf("Overwriting %s in server.properties to %d\n", MAX_TICK_TIME_KEY, MAX_TICK_TIME_REQUIRED);
       }
+
+      final var enableJmxMonitoring = properties.getProperty(ENABLE_JMX_MONITORING_KEY);
+      if (enableJmxMonitoring == null || Boolean.parseBoolean(enableJmxMonitoring) != ENABLE_JMX_MONITORING_REQUIRED) {
+        System.out.printf("Overwriting %s in server.properties to %b\n", ENABLE_JMX_MONITORING_KEY, ENABLE_JMX_MONITORING_REQUIRED);
+      }
     } else {
       System.out.println("Creating server.properties");
     }
 
     properties.setProperty(FUNCTION_PERMISSION_LEVEL_KEY, String.valueOf(FUNCTION_PERMISSION_LEVEL_REQUIRED));
     properties.setProperty(MAX_TICK_TIME_KEY, String.valueOf(MAX_TICK_TIME_REQUIRED));
+    properties.setProperty(ENABLE_JMX_MONITORING_KEY, String.valueOf(ENABLE_JMX_MONITORING_REQUIRED));
 
     try (final var out = Files.newOutputStream(path)) {
       properties.store(out, "Minecraft server properties");
@@ -1,37 +1,199 @@
 package dev.mcenv.mch;
 
 import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.stat.inference.TTest;
 
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 final class Statistics {
+  private static final int BOOTSTRAP_RESAMPLES = 10000;
+  private static final long BOOTSTRAP_SEED = 0x6d6368L;
+  // modified z-score above which a value is considered an outlier (Iglewicz and Hoaglin)
+  private static final double OUTLIER_THRESHOLD = 3.5;
+  private static final double MAD_SCALE = 0.6745;
+
   public static double mean(
-    final Collection<Double> values
+    final double[] values
+  ) {
+    return mean(values, 0, values.length);
+  }
+
+  public static double mean(
+    final double[] values,
+    final int from,
+    final int to
   ) {
     var result = 0.0;
-    for (final var value : values) {
-      result += value;
+    for (var i = from; i < to; ++i) {
+      result += values[i];
     }
-    return result / values.size();
+    return result / (to - from);
   }
 
-  private static double variance(
-    final Collection<Double> values
+  // Welford's single-pass algorithm, which does not suffer from the cancellation of the naive sum of squares.
+  public static double variance(
+    final double[] values,
+    final int from,
+    final int to
   ) {
-    var result = 0.0;
-    final var mean = mean(values);
-    for (final var value : values) {
-      result += Math.pow(value - mean, 2.0);
+    var mean = 0.0;
+    var sum = 0.0;
+    var count = 0;
+    for (var i = from; i < to; ++i) {
+      ++count;
+      final var delta = values[i] - mean;
+      mean += delta / count;
+      sum += delta * (values[i] - mean);
     }
-    return result / (values.size() - 1);
+    return sum / (count - 1);
+  }
+
+  public static double standardDeviation(
+    final double[] values
+  ) {
+    return standardDeviation(values, 0, values.length);
+  }
+
+  public static double standardDeviation(
+    final double[] values,
+    final int from,
+    final int to
+  ) {
+    return Math.sqrt(variance(values, from, to));
   }
 
   public static double error(
-    final Collection<Double> values
+    final double[] values,
+    final double confidence
+  ) {
+    return error(values, 0, values.length, confidence);
+  }
+
+  public static double error(
+    final double[] values,
+    final int from,
+    final int to,
+    final double confidence
+  ) {
+    return error(standardDeviation(values, from, to), to - from, confidence);
+  }
+
+  public static double error(
+    final double standardDeviation,
+    final long count,
+    final double confidence
+  ) {
+    return new TDistribution(count - 1)
+      .inverseCumulativeProbability(quantile(confidence))
+      * standardDeviation
+      / Math.sqrt(count);
+  }
+
+  // Welch's confidence interval half-width for the difference of two means with unequal variances.
+  public static double differenceError(
+    final double standardDeviation1,
+    final long count1,
+    final double standardDeviation2,
+    final long count2,
+    final double confidence
+  ) {
+    final var variance1 = standardDeviation1 * standardDeviation1 / count1;
+    final var variance2 = standardDeviation2 * standardDeviation2 / count2;
+    if (variance1 + variance2 == 0.0) {
+      return 0.0;
+    }
+    final var degreesOfFreedom = Math.pow(variance1 + variance2, 2.0)
+      / (variance1 * variance1 / (count1 - 1) + variance2 * variance2 / (count2 - 1));
+    return new TDistribution(degreesOfFreedom)
+      .inverseCumulativeProbability(quantile(confidence))
+      * Math.sqrt(variance1 + variance2);
+  }
+
+  // Two-sided p-value of Welch's t-test for equal means.
+  public static double pValue(
+    final double[] values1,
+    final double[] values2
+  ) {
+    return new TTest().tTest(values1, values2);
+  }
+
+  // Per-iteration throughputs from per-iteration average times. Mean and error are then taken over the throughputs
+  // themselves, since the reciprocal of a confidence interval for the average time is not one for the throughput.
+  public static double[] reciprocals(
+    final double[] values
+  ) {
+    final var result = new double[values.length];
+    for (var i = 0; i < values.length; ++i) {
+      result[i] = 1.0 / values[i];
+    }
+    return result;
+  }
+
+  // Linearly interpolated percentile of sorted values.
+  public static double percentile(
+    final double[] sortedValues,
+    final double percentile
+  ) {
+    final var rank = percentile / 100.0 * (sortedValues.length - 1);
+    final var lower = (int) Math.floor(rank);
+    final var upper = (int) Math.ceil(rank);
+    return sortedValues[lower] + (rank - lower) * (sortedValues[upper] - sortedValues[lower]);
+  }
+
+  public static double median(
+    final double[] values
+  ) {
+    final var sortedValues = values.clone();
+    Arrays.sort(sortedValues);
+    return percentile(sortedValues, 50.0);
+  }
+
+  // Counts values whose distance from the median exceeds the threshold in units of the median absolute deviation,
+  // which, unlike the standard deviation, is not inflated by the outliers themselves.
+  public static int countOutliers(
+    final double[] values
+  ) {
+    final var median = median(values);
+    final var deviations = new double[values.length];
+    for (var i = 0; i < values.length; ++i) {
+      deviations[i] = Math.abs(values[i] - median);
+    }
+    final var mad = median(deviations);
+    if (mad == 0.0) {
+      return 0;
+    }
+    var result = 0;
+    for (final var deviation : deviations) {
+      if (MAD_SCALE * deviation / mad > OUTLIER_THRESHOLD) {
+        ++result;
+      }
+    }
+    return result;
+  }
+
+  // Percentile bootstrap confidence interval of the mean, which does not assume normally distributed values.
+  public static double[] bootstrapInterval(
+    final double[] values,
+    final double confidence
+  ) {
+    final var random = new SplittableRandom(BOOTSTRAP_SEED);
+    final var means = new double[BOOTSTRAP_RESAMPLES];
+    for (var i = 0; i < BOOTSTRAP_RESAMPLES; ++i) {
+      var sum = 0.0;
+      for (var j = 0; j < values.length; ++j) {
+        sum += values[random.nextInt(values.length)];
+      }
+      means[i] = sum / values.length;
+    }
+    Arrays.sort(means);
+    final var tail = (1.0 - confidence) / 2.0 * 100.0;
+    return new double[]{percentile(means, tail), percentile(means, 100.0 - tail)};
+  }
+
+  private static double quantile(
+    final double confidence
   ) {
-    return new TDistribution(values.size() - 1)
-      .inverseCumulativeProbability(0.9995)
-      * Math.sqrt(variance(values))
-      / Math.sqrt(values.size());
+    return 1.0 - (1.0 - confidence) / 2.0;
   }
 }
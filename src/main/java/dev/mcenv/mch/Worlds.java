@@ -0,0 +1,134 @@
+package dev.mcenv.mch;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+
+final class Worlds {
+  private static final String SESSION_LOCK = "session.lock";
+
+  public static void copy(
+    final Path source,
+    final Path target
+  ) throws IOException {
+    delete(target);
+    Files.walkFileTree(source, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        Files.createDirectories(target.resolve(source.relativize(dir)));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (!SESSION_LOCK.equals(file.getFileName().toString())) {
+          Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // Makes the target identical to the source, copying only the files whose size or modification time differ and
+  // deleting the files that the source lacks. Files are copied in parallel and keep their modification times, so that
+  // a world restored from a snapshot after a fork only copies back the region files that the fork has written.
+  // Hard links are not used, since the server rewrites region files in place, which would modify the snapshot.
+  public static void synchronize(
+    final Path source,
+    final Path target
+  ) throws IOException {
+    final var files = new ArrayList<Path>();
+    Files.walkFileTree(source, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        Files.createDirectories(target.resolve(source.relativize(dir)));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (!SESSION_LOCK.equals(file.getFileName().toString()) && !isUnchanged(attrs, target.resolve(source.relativize(file)))) {
+          files.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    Files.walkFileTree(target, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (!SESSION_LOCK.equals(file.getFileName().toString()) && !Files.exists(source.resolve(target.relativize(file)))) {
+          Files.delete(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        if (!Files.exists(source.resolve(target.relativize(dir)))) {
+          Files.delete(dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    files.parallelStream().forEach(file -> {
+      try {
+        transfer(file, target.resolve(source.relativize(file)));
+      } catch (final IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  private static boolean isUnchanged(
+    final BasicFileAttributes attributes,
+    final Path target
+  ) throws IOException {
+    if (!Files.isRegularFile(target)) {
+      return false;
+    }
+    final var targetAttributes = Files.readAttributes(target, BasicFileAttributes.class);
+    return attributes.size() == targetAttributes.size() && attributes.lastModifiedTime().equals(targetAttributes.lastModifiedTime());
+  }
+
+  private static void transfer(
+    final Path source,
+    final Path target
+  ) throws IOException {
+    try (
+      final var in = FileChannel.open(source, StandardOpenOption.READ);
+      final var out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+    ) {
+      final var size = in.size();
+      var position = 0L;
+      while (position < size) {
+        position += in.transferTo(position, size - position, out);
+      }
+    }
+    Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+  }
+
+  public static void delete(
+    final Path path
+  ) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    Files.walkFileTree(path, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}